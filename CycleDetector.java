@@ -0,0 +1,159 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Detects when a world returns to a state it has been in before, from the
+ * hashes of its generations. Only the most recent generations are
+ * remembered, so cycles longer than the capacity are not found. Once a
+ * repeat is seen the period and the first generation of the cycle (as far
+ * back as is remembered) are reported - a period of 1 is a still life.
+ * Repeats found from worlds are checked cell by cell before being reported,
+ * since different states can share a hash.
+ */
+public class CycleDetector {
+
+    /**
+     * Default number of generations remembered.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final Map<Long, Long> mSeen;
+    private long mPeriod = -1;
+    private long mCycleStart = -1;
+
+    /**
+     * Constructor - remembers the default number of generations.
+     */
+    public CycleDetector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor - takes the number of generations to remember.
+     * @param capacity   Maximum number of hashes held
+     */
+    public CycleDetector(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1 (" + capacity + " given).");
+        // Forgets the oldest generation once full
+        mSeen = new LinkedHashMap<Long, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Records the hash of a generation. Generations should be given in
+     * increasing order. Nothing but the hash is compared, so two different
+     * states with the same hash are reported as a cycle - use
+     * observe(World, long) where that matters.
+     * @param hash         Hash of the world, from World.getHash()
+     * @param generation   Generation number
+     * @return   True if this state has been seen before, i.e. a cycle has
+     *           been found
+     */
+    public boolean observe(long hash, long generation) {
+        if (mPeriod > 0) return true;
+        Long previous = mSeen.putIfAbsent(hash, generation);
+        if (previous == null) return false;
+        mPeriod = generation - previous;
+        mCycleStart = previous;
+        return true;
+    }
+
+    /**
+     * Records the current generation of a world.
+     * @param world   World
+     * @return   True if a cycle has been found
+     */
+    public boolean observe(World world) {
+        return observe(world, world.getGenerationCount());
+    }
+
+    /**
+     * Records a generation of a world, numbered by the caller (e.g. where
+     * the world's own int counter could overflow). When the hash has been
+     * seen before, a copy of the world is stepped through the period to
+     * check that it really returns to the same cells. If it does not, the
+     * hashes merely collided, and this generation is remembered in place
+     * of the earlier one.
+     * @param world        World
+     * @param generation   Generation number
+     * @return   True if a cycle has been found
+     */
+    public boolean observe(World world, long generation) {
+        if (mPeriod > 0) return true;
+        long hash = world.getHash();
+        Long previous = mSeen.putIfAbsent(hash, generation);
+        if (previous == null) return false;
+        long period = generation - previous;
+        if (!returnsAfter(world, period)) {
+            mSeen.remove(hash);
+            mSeen.put(hash, generation);
+            return false;
+        }
+        mPeriod = period;
+        mCycleStart = previous;
+        return true;
+    }
+
+    /**
+     * Checks whether a cycle has been found.
+     * @return   True if a state has repeated
+     */
+    public boolean isCycleFound() {
+        return mPeriod > 0;
+    }
+
+    /**
+     * Gets the period of the cycle found.
+     * @return   Period in generations, or -1 if no cycle has been found
+     */
+    public long getPeriod() {
+        return mPeriod;
+    }
+
+    /**
+     * Gets the earliest remembered generation which is part of the cycle.
+     * @return   Generation number, or -1 if no cycle has been found
+     */
+    public long getCycleStart() {
+        return mCycleStart;
+    }
+
+    /**
+     * Works out which generation within the cycle has the same state as a
+     * later generation, so that it can be reached without stepping there.
+     * @param generation   Generation at or after the start of the cycle
+     * @return   Equivalent generation in [cycle start, cycle start + period)
+     */
+    public long equivalentGeneration(long generation) {
+        if (mPeriod <= 0)
+            throw new IllegalStateException("No cycle has been found.");
+        if (generation < mCycleStart) return generation;
+        return mCycleStart + (generation - mCycleStart) % mPeriod;
+    }
+
+    /**
+     * Helper method - checks whether a world has the same cells again after
+     * a number of generations, by stepping a copy of it.
+     * @param world    World
+     * @param period   Number of generations
+     * @return   True if the cells repeat
+     */
+    private static boolean returnsAfter(World world, long period) {
+        World copy = new World(world);
+        for (long i = 0; i < period; i++)
+            copy.nextGeneration();
+        for (int row = 0; row < world.getHeight(); row++) {
+            if (world.sharesRow(copy, row)) continue;
+            for (int i = 0; i < world.getWordsPerRow(); i++)
+                if (world.getWord(row, i) != copy.getWord(row, i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.util.Arrays;
+
+/**
+ * Population counts of a world in square blocks, at several levels of
+ * detail, for drawing worlds too large to show cell by cell. Level 0 counts
+ * blocks of 8x8 cells, and each level above counts blocks twice the size,
+ * up to a single block covering the whole world. When a later generation is
+ * given, only the block rows containing rows which changed (i.e. which are
+ * not shared with the previous world - see World.sharesRow) are counted
+ * again.
+ */
+public class DensityMap {
+
+    /**
+     * Side of the blocks counted at level 0, in cells. Blocks of this width
+     * are whole bytes of the words a world stores its cells in.
+     */
+    public static final int BASE_BLOCK = 8;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final long[][] mCounts;
+    private final int[] mBlockCols;
+    private final int[] mBlockRows;
+    private final boolean[][] mDirty;
+    private World mWorld;
+
+    /**
+     * Constructor - takes the size of the worlds to be counted. Counts are
+     * all zero until a world is given to update().
+     * @param width    Width of world
+     * @param height   Height of world
+     */
+    public DensityMap(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        int levels = 1;
+        while (((long) BASE_BLOCK << (levels - 1)) < Math.max(width, height))
+            levels++;
+        mCounts = new long[levels][];
+        mBlockCols = new int[levels];
+        mBlockRows = new int[levels];
+        mDirty = new boolean[levels][];
+        for (int k = 0; k < levels; k++) {
+            long size = (long) BASE_BLOCK << k;
+            mBlockCols[k] = (int) ((width + size - 1) / size);
+            mBlockRows[k] = (int) ((height + size - 1) / size);
+            mCounts[k] = new long[mBlockCols[k] * mBlockRows[k]];
+            mDirty[k] = new boolean[mBlockRows[k]];
+        }
+    }
+
+    /**
+     * Counts the cells of a world, recounting only the blocks which may have
+     * changed since the world last given. A world given twice is counted in
+     * full, since it may have been modified in between.
+     * @param w   World of the size this map was created for
+     */
+    public void update(World w) {
+        if (w.getWidth() != mWidth || w.getHeight() != mHeight)
+            throw new IllegalArgumentException("Density map is for a " + mWidth + "x" + mHeight + " world.");
+        World previous = mWorld;
+        mWorld = w;
+        boolean full = (previous == null || previous == w);
+
+        // Level 0, from the cells of rows which changed
+        for (int br = 0; br < mBlockRows[0]; br++) {
+            int to = Math.min(mHeight, (br + 1) * BASE_BLOCK);
+            boolean changed = full;
+            for (int row = br * BASE_BLOCK; !changed && row < to; row++)
+                changed = !w.sharesRow(previous, row);
+            if (changed) countBlockRow(br);
+            mDirty[0][br] = changed;
+        }
+
+        // Each level above, from the four blocks below it
+        for (int k = 1; k < mCounts.length; k++) {
+            boolean[] below = mDirty[k - 1];
+            for (int br = 0; br < mBlockRows[k]; br++) {
+                boolean changed = below[2 * br] || (2 * br + 1 < below.length && below[2 * br + 1]);
+                if (changed) sumBlockRow(k, br);
+                mDirty[k][br] = changed;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of levels of detail.
+     * @return   Number of levels - the top level is a single block
+     */
+    public int getLevels() {
+        return mCounts.length;
+    }
+
+    /**
+     * Gets the side of the blocks counted at a level.
+     * @param level   Level of detail
+     * @return   Side of block in cells
+     */
+    public int getBlockSize(int level) {
+        return BASE_BLOCK << level;
+    }
+
+    /**
+     * Gets the number of live cells in a block.
+     * @param level   Level of detail
+     * @param col     Column of block, in blocks at that level
+     * @param row     Row of block, in blocks at that level
+     * @return   Population of block
+     */
+    public long getCount(int level, int col, int row) {
+        return mCounts[level][row * mBlockCols[level] + col];
+    }
+
+    /**
+     * Helper method - counts a row of level 0 blocks from the world's cells,
+     * a byte of each word at a time, skipping bytes with no live cells.
+     * @param br   Block row
+     */
+    private void countBlockRow(int br) {
+        long[] counts = mCounts[0];
+        int offset = br * mBlockCols[0];
+        Arrays.fill(counts, offset, offset + mBlockCols[0], 0);
+        int to = Math.min(mHeight, (br + 1) * BASE_BLOCK);
+        int words = mWorld.getWordsPerRow();
+        for (int row = br * BASE_BLOCK; row < to; row++) {
+            for (int i = 0; i < words; i++) {
+                long word = mWorld.getWord(row, i);
+                while (word != 0) {
+                    // Bits past the last column are always clear, so every
+                    // byte found is within the world
+                    int b = Long.numberOfTrailingZeros(word) >>> 3;
+                    long mask = 0xFFL << (b << 3);
+                    counts[offset + (i << 3) + b] += Long.bitCount(word & mask);
+                    word &= ~mask;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method - sums a row of blocks at a level from the (up to) four
+     * blocks each covers on the level below.
+     * @param level   Level of detail (at least 1)
+     * @param br      Block row
+     */
+    private void sumBlockRow(int level, int br) {
+        long[] counts = mCounts[level];
+        long[] below = mCounts[level - 1];
+        int cols = mBlockCols[level];
+        int belowCols = mBlockCols[level - 1];
+        int top = 2 * br * belowCols;
+        int bottom = (2 * br + 1 < mBlockRows[level - 1]) ? top + belowCols : -1;
+        for (int bc = 0; bc < cols; bc++) {
+            int left = 2 * bc;
+            boolean right = left + 1 < belowCols;
+            long sum = below[top + left];
+            if (right) sum += below[top + left + 1];
+            if (bottom >= 0) {
+                sum += below[bottom + left];
+                if (right) sum += below[bottom + left + 1];
+            }
+            counts[br * cols + bc] = sum;
+        }
+    }
+}
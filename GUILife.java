@@ -6,10 +6,9 @@ import javax.swing.border.EtchedBorder;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import java.awt.*;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Game class - creates graphical user interface, including a means of
@@ -20,11 +19,31 @@ public class GUILife extends JFrame implements ListSelectionListener {
 
     private World mWorld;
     private PatternStore mStore;
-    private ArrayList<World> mCachedWorlds = new ArrayList<>();
+    private JList<Pattern> mPatternList;
+    private JPanel mPatternsPanel;
+    private GenerationHistory mHistory;
     private GamePanel mGamePanel;
     private JButton mPlayButton;
+    private JButton[] mNavigation;
+    private SwingWorker<World, Integer> mSeek;
     private boolean mPlaying;
-    private java.util.Timer mTimer;
+    private Timer mTimer;
+    private SimulationPipeline mPipeline;
+    private int mRate = 2;
+    private double mOwed;
+    private long mLastTick;
+
+    /**
+     * Playback speeds offered, in generations per second.
+     */
+    private static final Integer[] RATES = {1, 2, 5, 10, 25, 60, 100, 250, 1000, 5000};
+
+    /**
+     * Shortest time between display updates, in milliseconds (about 60
+     * frames per second). Faster rates skip generations rather than draw
+     * more often.
+     */
+    private static final int MIN_FRAME_MILLIS = 16;
     
     /**
      * Constructs a new GUILife object from an initialised PatternStore
@@ -44,6 +63,40 @@ public class GUILife extends JFrame implements ListSelectionListener {
         add(createControlPanel(),BorderLayout.SOUTH);
         add(createGamePanel(),BorderLayout.CENTER);
     }
+
+    /**
+     * Constructs a new GUILife object from a PatternStore which is still
+     * loading. The window is usable straight away, and the patterns are
+     * listed once the store has loaded.
+     *
+     * @param  store   future which completes with the PatternStore
+     * @see            PatternStore#loadAsync(String)
+     */
+    public GUILife(CompletableFuture<PatternStore> store) {
+        this((PatternStore) null);
+        store.whenComplete((ps, e) -> SwingUtilities.invokeLater(() -> {
+            if (e != null) {
+                addBorder(mPatternsPanel, "Patterns (failed to load)");
+                Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                JOptionPane.showMessageDialog(this, "Could not load patterns: " + cause.getMessage(),
+                        "Game of Life", JOptionPane.ERROR_MESSAGE);
+            }
+            else {
+                setStore(ps);
+            }
+        }));
+    }
+
+    /**
+     * Lists the patterns of a store in the left-hand panel, sorted by name.
+     *
+     * @param  ps   a PatternStore object initialised with patterns
+     */
+    private void setStore(PatternStore ps) {
+        mStore = ps;
+        mPatternList.setListData(ps.getPatternsNameSorted().toArray(new Pattern[0]));
+        addBorder(mPatternsPanel, "Patterns");
+    }
     
     /**
      * Adds a border with title to component.
@@ -79,30 +132,27 @@ public class GUILife extends JFrame implements ListSelectionListener {
     private JPanel createPatternsPanel() {
         // Creates patterns panel with scrollable list of patterns sorted by name
         JPanel patt = new JPanel(new GridLayout(1,1));
-        addBorder(patt,"Patterns");
-
-        // Gets patterns sorted by name, adds each to String[] patternData
-        List<Pattern> patterns = mStore.getPatternsNameSorted();
-        Pattern[] patternData = new Pattern[patterns.size()];
-        int index = 0;
-        for (Pattern p : patterns) {
-            patternData[index] = p;
-            index++;
-        }
+        mPatternsPanel = patt;
 
-        // Seeds JList with patternData, adds and returns
-        JList<Pattern> patternJList = new JList<>(patternData);
+        // Empty until the store has loaded
+        JList<Pattern> patternJList = new JList<>();
         patternJList.addListSelectionListener(this);
         patt.add(new JScrollPane(patternJList));
+        mPatternList = patternJList;
+        if (mStore != null)
+            setStore(mStore);
+        else
+            addBorder(patt,"Patterns (loading...)");
         return patt;
     }
     
     /**
-     * Creates the 'control panel' with back, forward and play buttons.
+     * Creates the 'control panel' with back, forward, play and go to
+     * buttons, and a choice of playback speed.
      */
     private JPanel createControlPanel() {
-        // Creates control panel with 3 buttons of equal width
-        JPanel ctrl =  new JPanel(new GridLayout(1,3));
+        // Creates control panel with 5 controls of equal width
+        JPanel ctrl =  new JPanel(new GridLayout(1,5));
         addBorder(ctrl,"Controls");
 
         // Back button
@@ -127,6 +177,28 @@ public class GUILife extends JFrame implements ListSelectionListener {
         });
         ctrl.add(forwardButton);
 
+        // Go to button
+        JButton goToButton = new JButton("Go to...");
+        goToButton.addActionListener(e -> {
+            if (mPlaying) runOrPause();
+            goToGeneration();
+        });
+        ctrl.add(goToButton);
+        mNavigation = new JButton[] {backButton, playButton, forwardButton, goToButton};
+
+        // Speed selector
+        JComboBox<Integer> speed = new JComboBox<>(RATES);
+        speed.setSelectedItem(mRate);
+        speed.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, value + " gen/s", index, isSelected, cellHasFocus);
+            }
+        });
+        speed.addActionListener(e -> setRate((Integer) speed.getSelectedItem()));
+        ctrl.add(speed);
+
         return ctrl;
     }
     
@@ -135,9 +207,9 @@ public class GUILife extends JFrame implements ListSelectionListener {
      */
     private void moveBack() {
         int currentGeneration = mWorld.getGenerationCount();
-        // Gets world from cache and displays in GamePanel
+        // Gets world from history and displays in GamePanel
         if (currentGeneration != 0) {
-            mWorld = mCachedWorlds.get(currentGeneration - 1);
+            mWorld = mHistory.get(currentGeneration - 1);
             mGamePanel.display(mWorld);
             addBorder(mGamePanel,("Generation: " + mWorld.getGenerationCount()));
         }
@@ -148,23 +220,100 @@ public class GUILife extends JFrame implements ListSelectionListener {
      */
     private void moveForward() {
         int currentGeneration = mWorld.getGenerationCount();
-        // Gets world from cache and displays in GamePanel
-        if (currentGeneration + 1 < mCachedWorlds.size()) {
-            mWorld = (mCachedWorlds.get(currentGeneration + 1));
-            mGamePanel.display(mWorld);
-            addBorder(mGamePanel,("Generation: " + mWorld.getGenerationCount()));
+        // Gets world from history (which generates it if not yet visited)
+        // and displays in GamePanel
+        mWorld = mHistory.get(currentGeneration + 1);
+        mGamePanel.display(mWorld);
+        addBorder(mGamePanel,("Generation: " + mWorld.getGenerationCount()));
+    }
+    
+    /**
+     * Asks for a generation and jumps straight to it. The generations on the
+     * way are computed in the background without being displayed, from the
+     * nearest one held in the history, with a progress dialog which can
+     * cancel the jump. The other controls are disabled until the jump ends.
+     */
+    private void goToGeneration() {
+        if (mWorld == null) return;
+        String input = JOptionPane.showInputDialog(this, "Go to generation:", mWorld.getGenerationCount());
+        if (input == null) return;
+        int target;
+        try {
+            target = Integer.parseInt(input.trim());
+            if (target < 0) throw new NumberFormatException();
         }
-
-        // Else generates next generation and adds to cache
-        else {
-            mWorld = copyWorld();
-            if (mWorld != null) mWorld.nextGeneration();
-            mCachedWorlds.add(mWorld);
-            mGamePanel.display(mWorld);
-            addBorder(mGamePanel,("Generation: " + mWorld.getGenerationCount()));
+        catch (NumberFormatException nfe) {
+            JOptionPane.showMessageDialog(this, "Not a generation: " + input,
+                    "Game of Life", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+
+        GenerationHistory history = mHistory;
+        ProgressMonitor monitor = new ProgressMonitor(this, "Going to generation " + target, "", 0, target);
+        SwingWorker<World, Integer> seek = new SwingWorker<World, Integer>() {
+            @Override
+            protected World doInBackground() throws InterruptedException {
+                return history.seek(target, g -> publish(g));
+            }
+
+            @Override
+            protected void process(List<Integer> reached) {
+                if (monitor.isCanceled()) {
+                    cancel(true);
+                    return;
+                }
+                int g = reached.get(reached.size() - 1);
+                monitor.setProgress(g);
+                monitor.setNote("Generation " + g);
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                // Ignores the result if another pattern was chosen meanwhile
+                if (mSeek != this) return;
+                mSeek = null;
+                setNavigationEnabled(true);
+                if (isCancelled()) return;
+                try {
+                    mWorld = get();
+                }
+                catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GUILife.this, "Could not go to generation " + target
+                            + ": " + cause.getMessage(), "Game of Life", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                mGamePanel.display(mWorld);
+                addBorder(mGamePanel,("Generation: " + mWorld.getGenerationCount()));
+            }
+        };
+        mSeek = seek;
+        setNavigationEnabled(false);
+        seek.execute();
     }
-    
+
+    /**
+     * Helper method - cancels any jump to a generation in progress, and
+     * re-enables the controls.
+     */
+    private void cancelSeek() {
+        if (mSeek == null) return;
+        mSeek.cancel(true);
+        mSeek = null;
+        setNavigationEnabled(true);
+    }
+
+    /**
+     * Helper method - enables or disables the back, play, forward and go to
+     * buttons.
+     * @param enabled   True to enable
+     */
+    private void setNavigationEnabled(boolean enabled) {
+        for (JButton button : mNavigation)
+            button.setEnabled(enabled);
+    }
+
     /**
      * Implementation of the ListSelectionListener interface method:
      * changes pattern when user makes a selection in the patterns list
@@ -175,64 +324,110 @@ public class GUILife extends JFrame implements ListSelectionListener {
         JList<Pattern> list = (JList<Pattern>) e.getSource();
         
         Pattern p = list.getSelectedValue();
-        mCachedWorlds.clear();
+        if (p == null) return;
+        if (mPlaying) runOrPause();
 
+        World world;
         try {
-            mWorld = new World(p);
+            world = new World(p);
         }
         catch (PatternFormatException pfe) {
-            pfe.printStackTrace();
+            // Keeps showing the current world and its history
+            JOptionPane.showMessageDialog(this, "Could not load " + p.getName() + ": " + pfe.getMessage(),
+                    "Game of Life", JOptionPane.ERROR_MESSAGE);
+            return;
         }
 
-        // Adds first generation to cache, prints world
-        mCachedWorlds.add(mWorld);
+        // Starts a new history from the first generation, prints world
+        cancelSeek();
+        mWorld = world;
+        mHistory = new GenerationHistory(mWorld);
         mGamePanel.display(mWorld);
         addBorder(mGamePanel,"Generation: 0");
     }
     
     /**
-     * Method to copy current world. Returns new copied world.
-     *
-     * @return                copy of current world
-     */
-    private World copyWorld() {
-        try {
-            return mWorld.clone();
-        }
-        catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-    
-    /**
-     * Called when `play` button is pressed. If not currently playing, it will
-     * advance one generation every 500ms. Otherwise it will pause play.
+     * Called when `play` button is pressed. If not currently playing, it
+     * starts computing generations on a background thread and shows them at
+     * the selected speed. Otherwise it will pause play on the generation
+     * last shown.
      */
     private void runOrPause() {
         if (mPlaying) {
-            mTimer.cancel();
+            mTimer.stop();
+            mPipeline.stop();
+            mPipeline = null;
             mPlaying = false;
             mPlayButton.setText("Play");
         }
         else {
-            mPlaying=true;
+            if (mWorld == null) return;
+            mPlaying = true;
             mPlayButton.setText("Stop");
-            mTimer = new java.util.Timer(true);
-            mTimer.scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    moveForward();
-                }
-            }, 0, 500);
+            mPipeline = new SimulationPipeline(mHistory, mWorld.getGenerationCount());
+            mPipeline.start();
+            mOwed = 0;
+            mLastTick = System.nanoTime();
+            mTimer = new Timer(frameDelay(), e -> showNextFrame());
+            mTimer.start();
+        }
+    }
+
+    /**
+     * Called by the playback timer on the Event Dispatch Thread. Works out
+     * how many generations are due at the selected speed and shows the
+     * latest of them, skipping any in between.
+     */
+    private void showNextFrame() {
+        long now = System.nanoTime();
+        mOwed += (now - mLastTick) * mRate / 1e9;
+        mLastTick = now;
+        int due = (int) mOwed;
+        if (due == 0) return;
+
+        // If the simulation has fallen behind, fewer are taken - it carries on
+        // from there rather than catching up in a burst
+        World frame = mPipeline.advance(due);
+        mOwed -= due;
+        if (frame == null) {
+            Throwable error = mPipeline.getError();
+            if (error != null) {
+                runOrPause();
+                JOptionPane.showMessageDialog(this, "Could not compute the next generation: "
+                        + error.getMessage(), "Game of Life", JOptionPane.ERROR_MESSAGE);
+            }
+            return;
         }
+        mWorld = frame;
+        mGamePanel.display(mWorld);
+        addBorder(mGamePanel,("Generation: " + mWorld.getGenerationCount()));
+    }
+
+    /**
+     * Sets the playback speed, taking effect immediately if playing.
+     *
+     * @param rate   generations per second
+     */
+    private void setRate(int rate) {
+        mRate = rate;
+        if (mTimer != null) mTimer.setDelay(frameDelay());
+    }
+
+    /**
+     * Gets the time between playback timer ticks for the current speed.
+     *
+     * @return   delay in milliseconds
+     */
+    private int frameDelay() {
+        return Math.max(MIN_FRAME_MILLIS, 1000 / mRate);
     }
     
     /**
      * Initialises PatternStore object and creates a new GUILife object.
      */
-    public static void main(String[] args) throws IOException {
-        PatternStore ps = new PatternStore("http://www.cl.cam.ac.uk/teaching/1617/OOProg/ticks/life.txt");
+    public static void main(String[] args) {
+        // Loads in the background, from the on-disk cache if it is fresh
+        CompletableFuture<PatternStore> ps = PatternStore.loadAsync("http://www.cl.cam.ac.uk/teaching/1617/OOProg/ticks/life.txt");
         GUILife gui = new GUILife(ps);
         gui.setVisible(true);
     }
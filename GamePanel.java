@@ -2,14 +2,116 @@ package uk.ac.cam.cjo41.gameoflife;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 /**
- * Represents the panel showing the game board.
+ * Represents the panel showing the game board, through a viewport which can
+ * be zoomed (mouse wheel) and panned (drag); double-clicking fits the whole
+ * world in the panel again. The view is rasterised into an int[]-backed
+ * image the size of the panel, so drawing costs in proportion to pixels,
+ * not cells:
+ * - zoomed in, each pixel looks up the one cell under it;
+ * - zoomed out a little, each pixel counts the few cells under it;
+ * - zoomed out further, each pixel is shaded by the population of a block
+ *   at least as big as it, from a DensityMap.
+ * When a new generation is displayed only the pixel rows over world rows
+ * which changed are redrawn and repainted - rows shared with the previous
+ * world (see World.sharesRow) are certainly unchanged.
+ *
+ * Worlds displayed should not be modified afterwards, as with those from
+ * GenerationHistory; a world displayed again is redrawn in full.
  */
 public class GamePanel extends JPanel {
 
+    private static final int LIVE = Color.BLACK.getRGB();
+    private static final int DEAD = Color.WHITE.getRGB();
+    private static final int GRID = Color.LIGHT_GRAY.getRGB();
+
+    /**
+     * Smallest cell size, in pixels, at which grid lines are drawn.
+     */
+    private static final int MIN_GRID_SIDE = 4;
+
+    /**
+     * Largest cell size, in pixels.
+     */
+    private static final double MAX_SCALE = 64;
+
+    /**
+     * Zoom factor for each notch of the mouse wheel.
+     */
+    private static final double ZOOM_STEP = 1.25;
+
     private World mWorld = null;
-    
+    private DensityMap mDensity;
+    private BufferedImage mImage;
+    private int[] mPixels;
+    private int[] mChangedRows;
+
+    // Viewport - pixels per cell, and world coordinates of the top left
+    private double mScale;
+    private double mOriginX;
+    private double mOriginY;
+    private boolean mFitted = true;
+    private boolean mStale = true;
+
+    // Cells under each pixel column and row, as [from, to), or -1 outside
+    // the world; edges are the first pixels of cells, for grid lines
+    private int[] mColFrom;
+    private int[] mColTo;
+    private int[] mRowFrom;
+    private int[] mRowTo;
+    private boolean[] mColEdge;
+    private boolean[] mRowEdge;
+    private int mLevel;
+
+    /**
+     * Levels for mLevel other than those of the density map.
+     */
+    private static final int ZOOMED_IN = -2;
+    private static final int COUNT_CELLS = -1;
+
+    /**
+     * Creates an empty panel, with mouse controls for the viewport.
+     */
+    public GamePanel() {
+        MouseAdapter mouse = new MouseAdapter() {
+            private int mLastX;
+            private int mLastY;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                mLastX = e.getX();
+                mLastY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                pan(e.getX() - mLastX, e.getY() - mLastY);
+                mLastX = e.getX();
+                mLastY = e.getY();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) fitToWorld();
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
     /**
      * Creates game board from world
      *
@@ -22,64 +124,273 @@ public class GamePanel extends JPanel {
         g.fillRect(0, 0, this.getWidth(), this.getHeight());
 
         // Returns if no mWorld has been specified
-        if (mWorld == null) return;
-
-        // Gets sizes and stores
-        int worldWidth = mWorld.getWidth();
-        int worldHeight = mWorld.getHeight();
-        int panelWidth = this.getWidth();
-        int panelHeight = this.getHeight();
-        
-        // Calculates maximum side size
-        int dx = panelWidth / worldWidth;
-        int dy = panelHeight / worldHeight;
-        int side = Math.min(dx, dy);
-        
-        // Calculates number of pixels in 'gaps'
-        int leftOverX = panelWidth - side * worldWidth;
-        int leftOverY = panelHeight - side * worldHeight;
-        int leftOver = Math.min(leftOverX, leftOverY);
-
-        for (int row = 0; row < worldHeight; row++) {
-            // Calculates height of given row and y position
-            int mHeight = side;
-            int ypos = row * side;
-            if (row < leftOver) {
-                ypos += row;
-                mHeight++;
+        if (mWorld == null || getWidth() <= 0 || getHeight() <= 0) return;
+
+        if (mStale || mImage.getWidth() != getWidth() || mImage.getHeight() != getHeight()) {
+            prepare();
+            renderRows(0, getHeight());
+        }
+        g.drawImage(mImage, 0, 0, null);
+    }
+
+    /**
+     * Takes a world as parameter and displays that world in the panel.
+     *
+     * @param w   World object
+     */
+    public void display(World w) {
+        World previous = mWorld;
+        mWorld = w;
+        if (w == null || previous == null
+                || previous.getWidth() != w.getWidth() || previous.getHeight() != w.getHeight()) {
+            // Starts again with the whole of a new board in view
+            mDensity = null;
+            mChangedRows = null;
+            mFitted = true;
+            mStale = true;
+            repaint();
+            return;
+        }
+        if (mDensity != null) mDensity.update(w);
+        if (mStale || previous == w) {
+            mStale = true;
+            repaint();
+            return;
+        }
+
+        // Counts changed rows cumulatively, so any range can be checked at once
+        if (mChangedRows == null) mChangedRows = new int[w.getHeight() + 1];
+        for (int row = 0; row < w.getHeight(); row++)
+            mChangedRows[row + 1] = mChangedRows[row] + (w.sharesRow(previous, row) ? 0 : 1);
+
+        int firstDirty = -1;
+        int lastDirty = -1;
+        for (int y = 0; y < mRowFrom.length; y++) {
+            if (mRowFrom[y] < 0 || mChangedRows[mRowTo[y]] == mChangedRows[mRowFrom[y]]) continue;
+            renderRows(y, y + 1);
+            if (firstDirty < 0) firstDirty = y;
+            lastDirty = y;
+        }
+        // Repaints only the band of pixel rows which changed
+        if (firstDirty >= 0) repaint(0, firstDirty, getWidth(), lastDirty - firstDirty + 1);
+    }
+
+    /**
+     * Zooms the view about a point of the panel, which stays over the same
+     * cell.
+     *
+     * @param factor   amount to multiply the size of cells by
+     * @param x        x position in the panel
+     * @param y        y position in the panel
+     */
+    public void zoom(double factor, int x, int y) {
+        if (mWorld == null || mScale == 0) return;
+        double minScale = Math.min(1, fitScale()) / 4;
+        double scale = Math.max(minScale, Math.min(MAX_SCALE, mScale * factor));
+        mOriginX += x / mScale - x / scale;
+        mOriginY += y / mScale - y / scale;
+        mScale = scale;
+        mFitted = false;
+        mStale = true;
+        repaint();
+    }
+
+    /**
+     * Moves the view by a distance on screen.
+     *
+     * @param dx   pixels to move right
+     * @param dy   pixels to move down
+     */
+    public void pan(int dx, int dy) {
+        if (mWorld == null || mScale == 0) return;
+        mOriginX -= dx / mScale;
+        mOriginY -= dy / mScale;
+        mFitted = false;
+        mStale = true;
+        repaint();
+    }
+
+    /**
+     * Returns the view to the whole world, at the largest size which fits.
+     */
+    public void fitToWorld() {
+        mFitted = true;
+        mStale = true;
+        repaint();
+    }
+
+    /**
+     * Helper method - gets the size of a cell which fits the whole world in
+     * the panel. Cells of a pixel or more are a whole number of pixels.
+     *
+     * @return   pixels per cell
+     */
+    private double fitScale() {
+        double scale = Math.min((double) getWidth() / mWorld.getWidth(),
+                (double) getHeight() / mWorld.getHeight());
+        return (scale >= 1) ? Math.floor(scale) : scale;
+    }
+
+    /**
+     * Helper method - sizes the image to the panel and works out which cells
+     * are under each pixel column and row, and how they are to be drawn.
+     */
+    private void prepare() {
+        int width = getWidth();
+        int height = getHeight();
+        if (mImage == null || mImage.getWidth() != width || mImage.getHeight() != height) {
+            mImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            mPixels = ((DataBufferInt) mImage.getRaster().getDataBuffer()).getData();
+            mColFrom = new int[width];
+            mColTo = new int[width];
+            mColEdge = new boolean[width];
+            mRowFrom = new int[height];
+            mRowTo = new int[height];
+            mRowEdge = new boolean[height];
+        }
+        if (mFitted) {
+            mScale = fitScale();
+            mOriginX = 0;
+            mOriginY = 0;
+        }
+
+        // Picks the smallest block of the density map at least a pixel wide,
+        // unless pixels are small enough to count cells directly
+        double cells = 1 / mScale;
+        if (mScale >= 1) {
+            mLevel = ZOOMED_IN;
+        }
+        else if (cells <= DensityMap.BASE_BLOCK) {
+            mLevel = COUNT_CELLS;
+        }
+        else {
+            if (mDensity == null) {
+                mDensity = new DensityMap(mWorld.getWidth(), mWorld.getHeight());
+                mDensity.update(mWorld);
             }
-            else ypos += leftOver;
-            
-            for (int col = 0; col < worldWidth; col++) {
-                // Calculates width of given column and x position
-                int mWidth = side;
-                int xpos = col * side;
-                if (col < leftOver) {
-                    xpos += col;
-                    mWidth++;
+            mLevel = 0;
+            while (mLevel < mDensity.getLevels() - 1 && mDensity.getBlockSize(mLevel) < cells)
+                mLevel++;
+        }
+        map(mOriginX, mWorld.getWidth(), mColFrom, mColTo, mColEdge);
+        map(mOriginY, mWorld.getHeight(), mRowFrom, mRowTo, mRowEdge);
+        mStale = false;
+    }
+
+    /**
+     * Helper method - works out the cells under each pixel along one axis.
+     *
+     * @param origin   world coordinate of the first pixel
+     * @param cells    size of the world along this axis
+     * @param from     first cell under each pixel, or -1 if outside the world
+     * @param to       cell after the last under each pixel
+     * @param edge     whether each pixel is the first of its cell
+     */
+    private void map(double origin, int cells, int[] from, int[] to, boolean[] edge) {
+        double perPixel = 1 / mScale;
+        int block = (mLevel >= 0) ? mDensity.getBlockSize(mLevel) : 1;
+        for (int p = 0; p < from.length; p++) {
+            long first;
+            long last;
+            if (mLevel >= 0) {
+                // The block under the middle of the pixel
+                long c = (long) Math.floor(origin + (p + 0.5) * perPixel);
+                first = Math.floorDiv(c, block) * block;
+                last = first + block;
+            }
+            else {
+                first = (long) Math.floor(origin + p * perPixel);
+                last = Math.max(first + 1, (long) Math.floor(origin + (p + 1) * perPixel));
+            }
+            first = Math.max(0, first);
+            last = Math.min(cells, last);
+            from[p] = (first < last) ? (int) first : -1;
+            to[p] = (first < last) ? (int) last : -1;
+            edge[p] = mLevel == ZOOMED_IN && mScale >= MIN_GRID_SIDE
+                    && from[p] >= 0 && (p == 0 || from[p] != from[p - 1]);
+        }
+    }
+
+    /**
+     * Helper method - draws a band of pixel rows into the image.
+     *
+     * @param first   first pixel row
+     * @param last    pixel row after the last
+     */
+    private void renderRows(int first, int last) {
+        int width = mColFrom.length;
+        for (int y = first; y < last; y++) {
+            int start = y * width;
+            int rowFrom = mRowFrom[y];
+            if (rowFrom < 0) {
+                Arrays.fill(mPixels, start, start + width, DEAD);
+                continue;
+            }
+            if (mLevel == ZOOMED_IN && mRowEdge[y]) {
+                for (int x = 0; x < width; x++)
+                    mPixels[start + x] = (mColFrom[x] >= 0) ? GRID : DEAD;
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                int colFrom = mColFrom[x];
+                int pixel;
+                if (colFrom < 0) {
+                    pixel = DEAD;
                 }
-                else xpos += leftOver;
-                
-                // Draws rectangle
-                if (mWorld.getCell(col, row)) {
-                    g.setColor(Color.BLACK);
-                    g.fillRect( xpos, ypos, mWidth, mHeight);
+                else if (mLevel == ZOOMED_IN) {
+                    if (mColEdge[x]) pixel = GRID;
+                    else pixel = ((mWorld.getWord(rowFrom, colFrom >>> 6) >>> colFrom) & 1) != 0 ? LIVE : DEAD;
                 }
                 else {
-                    g.setColor(Color.LIGHT_GRAY);
-                    g.drawRect( xpos, ypos, mWidth, mHeight);
+                    long area = (long) (mColTo[x] - colFrom) * (mRowTo[y] - rowFrom);
+                    long count;
+                    if (mLevel == COUNT_CELLS) {
+                        count = 0;
+                        for (int row = rowFrom; row < mRowTo[y]; row++)
+                            count += countCells(row, colFrom, mColTo[x]);
+                    }
+                    else {
+                        int block = mDensity.getBlockSize(mLevel);
+                        count = mDensity.getCount(mLevel, colFrom / block, rowFrom / block);
+                    }
+                    pixel = shade(count, area);
                 }
+                mPixels[start + x] = pixel;
             }
         }
     }
-    
+
     /**
-     * Takes a world as parameter and displays that world in the panel.
+     * Helper method - counts the live cells in part of a row.
      *
-     * @param w   World object
+     * @param row    row of the world
+     * @param from   first column
+     * @param to     column after the last
+     * @return   number of live cells
      */
-    public void display(World w) {
-        mWorld = w;
-        repaint();
+    private int countCells(int row, int from, int to) {
+        int count = 0;
+        for (int i = from >>> 6; i <= (to - 1) >>> 6; i++) {
+            long word = mWorld.getWord(row, i);
+            if (i == from >>> 6) word &= -1L << from;
+            if (i == (to - 1) >>> 6) word &= -1L >>> (63 - ((to - 1) & 63));
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Helper method - gets the colour of a pixel covering several cells, in
+     * greys from white (none alive) to black (all alive). Any live cell
+     * makes the pixel visibly grey.
+     *
+     * @param count   live cells under the pixel
+     * @param area    cells under the pixel
+     * @return   RGB colour
+     */
+    private static int shade(long count, long area) {
+        if (count == 0) return DEAD;
+        int level = (int) (200 - 200 * count / area);
+        return 0xFF000000 | (level << 16) | (level << 8) | level;
     }
 }
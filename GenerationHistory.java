@@ -0,0 +1,293 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Keeps the generations of a world which have been visited, within a memory
+ * budget. Full worlds are kept for keyframes (every N generations), the
+ * first and latest generations and recently viewed generations; every other
+ * step is kept as a WorldDelta, which is far smaller for most patterns. A
+ * generation which is not held is rebuilt by applying deltas forward from
+ * the nearest earlier world, or reverting them back from the nearest later
+ * one. When the budget is exceeded the least recently used worlds are
+ * evicted - in-between generations first, then keyframes - and then the
+ * oldest deltas. Generation 0 and the latest generation are never evicted,
+ * so any generation can still be recomputed by stepping.
+ *
+ * Listeners added to the initial world are told about each generation the
+ * first time it is computed, but not when it is computed again.
+ *
+ * Worlds returned are shared with the cache and must not be modified.
+ */
+public class GenerationHistory {
+
+    /**
+     * Default number of generations between keyframes.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    /**
+     * Default memory budget, in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    private final int mKeyframeInterval;
+    private final long mMemoryBudget;
+    private final TreeMap<Integer, World> mFrames = new TreeMap<>();
+    private final Map<Integer, Long> mSizes = new LinkedHashMap<>(16, 0.75f, true);
+    private final TreeMap<Integer, WorldDelta> mDeltas = new TreeMap<>();
+    private final WorldListener[] mListeners;
+    private long mMemoryUsed;
+    private int mLatest;
+
+    /**
+     * Constructor - takes generation 0 and uses the default keyframe
+     * interval and memory budget.
+     * @param initial   World at generation 0
+     */
+    public GenerationHistory(World initial) {
+        this(initial, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor - takes generation 0, the keyframe interval and the memory
+     * budget.
+     * @param initial            World at generation 0
+     * @param keyframeInterval   Generations between keyframes
+     * @param memoryBudget       Approximate bytes of worlds to keep
+     */
+    public GenerationHistory(World initial, int keyframeInterval, long memoryBudget) {
+        if (keyframeInterval < 1)
+            throw new IllegalArgumentException("Keyframe interval must be at least 1 (" + keyframeInterval + " given).");
+        mKeyframeInterval = keyframeInterval;
+        mMemoryBudget = memoryBudget;
+        mListeners = initial.getListeners();
+        mLatest = initial.getGenerationCount();
+        put(initial);
+    }
+
+    /**
+     * Gets the world at a generation, computing it if it has not been
+     * visited yet or has been evicted.
+     * @param generation   Generation number (not before the initial world)
+     * @return   World at that generation
+     */
+    public synchronized World get(int generation) {
+        World world = mFrames.get(generation);
+        if (world != null) {
+            mSizes.get(generation);   // marks as recently used
+            return world;
+        }
+        Map.Entry<Integer, World> floor = mFrames.floorEntry(generation);
+        if (floor == null)
+            throw new IllegalArgumentException("Generation " + generation + " is before the start of the history.");
+        Map.Entry<Integer, World> ceiling = mFrames.ceilingEntry(generation);
+
+        // Replays whichever run of deltas is shorter, if they are all held
+        int forward = generation - floor.getKey();
+        boolean canApply = hasDeltas(floor.getKey() + 1, generation);
+        boolean canRevert = ceiling != null && hasDeltas(generation + 1, ceiling.getKey());
+        if (canRevert && (!canApply || ceiling.getKey() - generation < forward)) {
+            world = copy(ceiling.getValue());
+            for (WorldDelta d : mDeltas.subMap(generation + 1, true, ceiling.getKey(), true).descendingMap().values())
+                d.revert(world);
+        }
+        else if (canApply) {
+            world = copy(floor.getValue());
+            for (WorldDelta d : mDeltas.subMap(floor.getKey() + 1, true, generation, true).values())
+                d.apply(world);
+        }
+        else {
+            // Steps on from the nearest earlier world, recording the deltas
+            world = floor.getValue();
+            while (world.getGenerationCount() < generation) {
+                World next = step(world);
+                putDelta(WorldDelta.between(world, next));
+                world = next;
+                mLatest = Math.max(mLatest, world.getGenerationCount());
+                if (world.getGenerationCount() % mKeyframeInterval == 0 && world.getGenerationCount() < generation)
+                    put(world);
+            }
+        }
+        world.trimToSize();
+        put(world);
+        return world;
+    }
+
+    /**
+     * Gets the world at a generation which may be far from any held, e.g.
+     * to jump straight to it. Steps on from the nearest world held at or
+     * before it, a keyframe at a time. The history is only locked for one
+     * keyframe interval at a time, and progress is reported and
+     * interruption checked between them. Keyframes reached are kept, so a
+     * seek which is cancelled part-way is not wasted.
+     * @param generation   Generation number (not before the initial world)
+     * @param progress     Told each generation reached on the way, or null
+     * @return   World at that generation
+     * @throws InterruptedException   If the thread is interrupted, e.g. to
+     *                                cancel the seek
+     */
+    public World seek(int generation, IntConsumer progress) throws InterruptedException {
+        int reached;
+        synchronized (this) {
+            Integer floor = mFrames.floorKey(generation);
+            if (floor == null)
+                throw new IllegalArgumentException("Generation " + generation + " is before the start of the history.");
+            reached = floor;
+        }
+        while (generation - reached > mKeyframeInterval) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            reached = (reached / mKeyframeInterval + 1) * mKeyframeInterval;
+            get(reached);
+            if (progress != null) progress.accept(reached);
+        }
+        if (Thread.interrupted()) throw new InterruptedException();
+        World world = get(generation);
+        if (progress != null) progress.accept(generation);
+        return world;
+    }
+
+    /**
+     * Gets the latest generation computed so far.
+     * @return   Generation number
+     */
+    public synchronized int getLatestGeneration() {
+        return mLatest;
+    }
+
+    /**
+     * Gets the approximate memory held by the cached worlds.
+     * @return   Bytes
+     */
+    public synchronized long getMemoryUsed() {
+        return mMemoryUsed;
+    }
+
+    /**
+     * Gets the number of generations currently held as full worlds.
+     * @return   Number of worlds held
+     */
+    public synchronized int size() {
+        return mFrames.size();
+    }
+
+    /**
+     * Gets the number of steps currently held as deltas.
+     * @return   Number of deltas held
+     */
+    public synchronized int getDeltaCount() {
+        return mDeltas.size();
+    }
+
+    /**
+     * Helper method - computes the generation after a world, leaving the
+     * world itself untouched. Listeners are only told about generations
+     * after the latest computed so far.
+     * @param world   World
+     * @return   New world, one generation on
+     */
+    private World step(World world) {
+        try {
+            // Clones start with no listeners
+            World next = world.clone();
+            boolean first = world.getGenerationCount() >= mLatest;
+            if (first)
+                for (WorldListener listener : mListeners) next.addListener(listener);
+            next.nextGeneration();
+            if (first)
+                for (WorldListener listener : mListeners) next.removeListener(listener);
+            // Cached worlds are never stepped again, so spare buffers are waste
+            next.trimToSize();
+            return next;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper method - copies a world so that deltas can be replayed on it.
+     * @param world   World
+     * @return   Copy
+     */
+    private static World copy(World world) {
+        try {
+            return world.clone();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper method - checks whether the deltas leading to every generation
+     * in a range are held.
+     * @param from   First generation
+     * @param to     Last generation
+     * @return   True if none are missing
+     */
+    private boolean hasDeltas(int from, int to) {
+        if (from > to) return true;
+        return mDeltas.subMap(from, true, to, true).size() == to - from + 1;
+    }
+
+    /**
+     * Helper method - keeps a delta and evicts others if over budget.
+     * @param delta   Delta
+     */
+    private void putDelta(WorldDelta delta) {
+        WorldDelta old = mDeltas.put(delta.getToGeneration(), delta);
+        if (old != null) mMemoryUsed -= old.getMemoryFootprint();
+        mMemoryUsed += delta.getMemoryFootprint();
+        evictAll();
+    }
+
+    /**
+     * Helper method - caches a world and evicts others if over budget.
+     * @param world   World
+     */
+    private void put(World world) {
+        int generation = world.getGenerationCount();
+        long size = world.getMemoryFootprint();
+        mFrames.put(generation, world);
+        Long old = mSizes.put(generation, size);
+        if (old != null) mMemoryUsed -= old;
+        mMemoryUsed += size;
+        evictAll();
+    }
+
+    /**
+     * Helper method - evicts worlds, then deltas, until within budget.
+     */
+    private void evictAll() {
+        if (mMemoryUsed > mMemoryBudget) evict(false);
+        if (mMemoryUsed > mMemoryBudget) evict(true);
+        // Oldest deltas go last - their generations can still be stepped to
+        while (mMemoryUsed > mMemoryBudget && !mDeltas.isEmpty())
+            mMemoryUsed -= mDeltas.pollFirstEntry().getValue().getMemoryFootprint();
+    }
+
+    /**
+     * Helper method - evicts least recently used generations until within
+     * budget, keeping the first and latest generations.
+     * @param keyframes   False to evict only in-between generations, true to
+     *                    evict keyframes too
+     */
+    private void evict(boolean keyframes) {
+        int first = mFrames.firstKey();
+        Iterator<Map.Entry<Integer, Long>> it = mSizes.entrySet().iterator();
+        while (mMemoryUsed > mMemoryBudget && it.hasNext()) {
+            Map.Entry<Integer, Long> e = it.next();
+            int generation = e.getKey();
+            if (generation == first || generation == mLatest) continue;
+            if (!keyframes && generation % mKeyframeInterval == 0) continue;
+            it.remove();
+            mFrames.remove(generation);
+            mMemoryUsed -= e.getValue();
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents an unbounded world as a quadtree of canonical, memoised
+ * macro-cells (Gosper's HashLife). Identical regions are stored once, and the
+ * future of every region is computed once, so a pattern can be advanced by
+ * huge powers of two in a single call.
+ */
+public class HashLife {
+
+    /**
+     * Default maximum number of nodes kept in the canonical node table.
+     */
+    public static final int DEFAULT_MAX_NODES = 1 << 22;
+
+    // Coordinates are longs, so a node's side must fit in one
+    private static final int MAX_LEVEL = 62;
+
+    private final Map<Node, Node> mNodes = new HashMap<>();
+    private final Node[] mEmpty = new Node[MAX_LEVEL + 1];
+    private final Node mDead;
+    private final Node mAlive;
+    private final int mMaxNodes;
+    // Size past which join() abandons a step, or 0 while not stepping
+    private int mLimit;
+    private final Rule mRule;
+    private Node mRoot;
+    private long mGeneration;
+
+    /**
+     * Thrown by join() to abandon a step which has grown the node table
+     * past its bound. Carries no stack trace, since it is always caught.
+     */
+    private static final class TableFull extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        TableFull() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final TableFull TABLE_FULL = new TableFull();
+
+    /**
+     * Square region of side 2^level. Level 0 nodes are single cells, every
+     * other node has four children of the level below.
+     */
+    private static final class Node {
+
+        private final int mLevel;
+        private final Node mNW, mNE, mSW, mSE;
+        private final long mPopulation;
+        private final int mHash;
+        private Node mResult;
+        private int mResultStep = -1;
+
+        /**
+         * Constructor - creates a single cell.
+         * @param alive   Whether the cell is alive
+         */
+        Node(boolean alive) {
+            mLevel = 0;
+            mNW = mNE = mSW = mSE = null;
+            mPopulation = alive ? 1 : 0;
+            mHash = alive ? 1 : 0;
+        }
+
+        /**
+         * Constructor - creates a node from its four quadrants.
+         * @param nw   North-west quadrant
+         * @param ne   North-east quadrant
+         * @param sw   South-west quadrant
+         * @param se   South-east quadrant
+         */
+        Node(Node nw, Node ne, Node sw, Node se) {
+            mLevel = nw.mLevel + 1;
+            mNW = nw;
+            mNE = ne;
+            mSW = sw;
+            mSE = se;
+            mPopulation = saturatedAdd(saturatedAdd(nw.mPopulation, ne.mPopulation),
+                    saturatedAdd(sw.mPopulation, se.mPopulation));
+            // Children are canonical, so identity is equality
+            int h = System.identityHashCode(nw);
+            h = 31 * h + System.identityHashCode(ne);
+            h = 31 * h + System.identityHashCode(sw);
+            mHash = 31 * h + System.identityHashCode(se);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) return false;
+            Node n = (Node) o;
+            return mNW == n.mNW && mNE == n.mNE && mSW == n.mSW && mSE == n.mSE;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    /**
+     * Constructor - takes a Pattern object and builds generation 0 of it,
+     * with the pattern's top-left corner at (0, 0).
+     * @param p   Pattern object
+     * @throws PatternFormatException
+     */
+    public HashLife(Pattern p) throws PatternFormatException {
+        this(p, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Constructor - takes a Pattern object and a bound on the node table.
+     * When the table grows past the bound, nodes which are no longer part
+     * of the current generation are discarded, along with all memoised
+     * results. The bound holds during advances too, except that a single
+     * generation is always computed in full.
+     * @param p          Pattern object
+     * @param maxNodes   Maximum number of nodes in the table
+     * @throws PatternFormatException
+     */
+    public HashLife(Pattern p, int maxNodes) throws PatternFormatException {
+        if (p.getRule().birthsFromNothing())
+            throw new IllegalArgumentException("Rule " + p.getRule() + " cannot be run on an unbounded world.");
+        mRule = p.getRule();
+        mMaxNodes = maxNodes;
+        mDead = new Node(false);
+        mAlive = new Node(true);
+        mEmpty[0] = mDead;
+        mRoot = empty(3);
+
+        // Reads the pattern's cells through a world of the pattern's size
+        World world = new World(p);
+        for (int row = 0; row < world.getHeight(); row++)
+            for (int col = 0; col < world.getWidth(); col++)
+                if (world.getCell(col, row))
+                    setCell(col, row, true);
+    }
+
+    /**
+     * Gets the rule which the pattern is run with.
+     * @return   Rule
+     */
+    public Rule getRule() {
+        return mRule;
+    }
+
+    /**
+     * Gets the generation number which the current state represents.
+     * @return   Current generation number
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Gets the number of live cells (saturating at Long.MAX_VALUE).
+     * @return   Population
+     */
+    public long getPopulation() {
+        return mRoot.mPopulation;
+    }
+
+    /**
+     * Gets the number of nodes in the canonical node table.
+     * @return   Number of nodes
+     */
+    public int getNodeCount() {
+        return mNodes.size();
+    }
+
+    /**
+     * Gets value of cell at (row, col).
+     * @param col
+     * @param row
+     * @return   True if alive
+     */
+    public boolean getCell(long col, long row) {
+        long half = 1L << (mRoot.mLevel - 1);
+        if (col < -half || col >= half || row < -half || row >= half)
+            return false;
+        return getCell(mRoot, col + half, row + half);
+    }
+
+    /**
+     * Sets cell at (row, col) to value, growing the universe if needed.
+     * @param col
+     * @param row
+     * @param value
+     */
+    public void setCell(long col, long row, boolean value) {
+        while (true) {
+            long half = 1L << (mRoot.mLevel - 1);
+            if (col >= -half && col < half && row >= -half && row < half) {
+                mRoot = setCell(mRoot, col + half, row + half, value);
+                return;
+            }
+            mRoot = expand(mRoot);
+        }
+    }
+
+    /**
+     * Advances the pattern by 2^k generations, in steps of up to 2^k
+     * generations. A step which would grow the node table past its bound is
+     * abandoned part-way, the table is collected and a step half the size is
+     * tried instead. Steps grow again, up to 2^k, after each one which
+     * fits, so a large advance of a chaotic pattern keeps to the bound
+     * without being reduced to single generations for good.
+     * @param k   Log (base 2) of the number of generations
+     */
+    public void advance(int k) {
+        if (k < 0 || k > MAX_LEVEL - 4)
+            throw new IllegalArgumentException("Cannot advance by 2^" + k + " generations.");
+        long remaining = 1L << k;
+        int maxStep = k;
+        while (remaining != 0) {
+            // The largest power of two left, so the steps sum to 2^k exactly
+            int step = Math.min(maxStep, 63 - Long.numberOfLeadingZeros(remaining));
+            // Memoised results are only worth keeping while there is room
+            if (mNodes.size() > mMaxNodes / 2) collect();
+            if (step(step)) {
+                remaining -= 1L << step;
+                maxStep = Math.min(k, maxStep + 1);
+            }
+            else {
+                collect();
+                maxStep = step - 1;
+            }
+        }
+        if (mNodes.size() > mMaxNodes) collect();
+    }
+
+    /**
+     * Helper method - advances the pattern by 2^k generations in one go,
+     * unless the node table grows past its bound first.
+     * @param k   Log (base 2) of the number of generations
+     * @return   True if the step was made, false if it was abandoned
+     */
+    private boolean step(int k) {
+        // Pads the universe so that the pattern lies in the centre quarter
+        // and cannot reach the edge of the result within 2^k generations
+        while (mRoot.mLevel < k + 3
+                || centre(centre(mRoot)).mPopulation != mRoot.mPopulation)
+            mRoot = expand(mRoot);
+        // A single generation is always finished, so an advance always
+        // makes progress
+        mLimit = (k == 0) ? 0 : mMaxNodes;
+        try {
+            mRoot = successor(expand(mRoot), k);
+        }
+        catch (TableFull e) {
+            return false;
+        }
+        finally {
+            mLimit = 0;
+        }
+        mGeneration += 1L << k;
+        return true;
+    }
+
+    /**
+     * Advances the pattern by any number of generations, as a sum of
+     * powers of two.
+     * @param generations   Number of generations (not negative)
+     */
+    public void advanceBy(long generations) {
+        if (generations < 0)
+            throw new IllegalArgumentException("Cannot advance by " + generations + " generations.");
+        for (int k = 0; generations != 0; k++, generations >>>= 1)
+            if ((generations & 1) != 0) advance(k);
+    }
+
+    /**
+     * Copies a window of the universe into a new World, e.g. for display.
+     * @param left     Column of the window's left edge
+     * @param top      Row of the window's top edge
+     * @param width    Width of window
+     * @param height   Height of window
+     * @return   World holding the window's cells
+     */
+    public World toWorld(long left, long top, int width, int height) {
+        World world = new World(width, height);
+        long half = 1L << (mRoot.mLevel - 1);
+        copyInto(world, mRoot, -half - left, -half - top);
+        return world;
+    }
+
+    /**
+     * Helper method - gets the canonical node with the given quadrants.
+     * @param nw   North-west quadrant
+     * @param ne   North-east quadrant
+     * @param sw   South-west quadrant
+     * @param se   South-east quadrant
+     * @return   Canonical node
+     */
+    private Node join(Node nw, Node ne, Node sw, Node se) {
+        Node n = new Node(nw, ne, sw, se);
+        Node existing = mNodes.putIfAbsent(n, n);
+        if (existing != null) return existing;
+        if (mLimit > 0 && mNodes.size() > mLimit) throw TABLE_FULL;
+        return n;
+    }
+
+    /**
+     * Helper method - gets the canonical empty node of a level.
+     * @param level   Level
+     * @return   Empty node
+     */
+    private Node empty(int level) {
+        if (mEmpty[level] == null) {
+            Node e = empty(level - 1);
+            mEmpty[level] = join(e, e, e, e);
+        }
+        return mEmpty[level];
+    }
+
+    /**
+     * Helper method - surrounds a node with empty space, giving a node one
+     * level up with the original in its centre.
+     * @param n   Node
+     * @return   Expanded node
+     */
+    private Node expand(Node n) {
+        if (n.mLevel >= MAX_LEVEL)
+            throw new IllegalStateException("Pattern has grown beyond the largest universe.");
+        Node e = empty(n.mLevel - 1);
+        return join(join(e, e, e, n.mNW), join(e, e, n.mNE, e),
+                join(e, n.mSW, e, e), join(n.mSE, e, e, e));
+    }
+
+    /**
+     * Helper method - gets the centre of a node, one level down.
+     * @param n   Node
+     * @return   Centre node
+     */
+    private Node centre(Node n) {
+        return join(n.mNW.mSE, n.mNE.mSW, n.mSW.mNE, n.mSE.mNW);
+    }
+
+    /**
+     * Helper method - gets the centre of a node, one level down, advanced
+     * by 2^step generations. The result is memoised on the node.
+     * @param n      Node (level 2 or above)
+     * @param step   Log (base 2) of the number of generations, at most level - 2
+     * @return   Advanced centre node
+     */
+    private Node successor(Node n, int step) {
+        if (n.mResultStep == step) return n.mResult;
+        Node result;
+        if (n.mPopulation == 0) {
+            result = empty(n.mLevel - 1);
+        }
+        else if (n.mLevel == 2) {
+            result = successorOfLeaf(n);
+        }
+        else {
+            // Nine overlapping sub-nodes, one level down
+            Node n00 = n.mNW, n02 = n.mNE, n20 = n.mSW, n22 = n.mSE;
+            Node n01 = join(n.mNW.mNE, n.mNE.mNW, n.mNW.mSE, n.mNE.mSW);
+            Node n10 = join(n.mNW.mSW, n.mNW.mSE, n.mSW.mNW, n.mSW.mNE);
+            Node n11 = centre(n);
+            Node n12 = join(n.mNE.mSW, n.mNE.mSE, n.mSE.mNW, n.mSE.mNE);
+            Node n21 = join(n.mSW.mNE, n.mSE.mNW, n.mSW.mSE, n.mSE.mSW);
+
+            // Full step advances both halves, otherwise the first half only
+            // re-centres and the whole step happens in the second half
+            boolean full = (step == n.mLevel - 2);
+            Node r00 = full ? successor(n00, step - 1) : centre(n00);
+            Node r01 = full ? successor(n01, step - 1) : centre(n01);
+            Node r02 = full ? successor(n02, step - 1) : centre(n02);
+            Node r10 = full ? successor(n10, step - 1) : centre(n10);
+            Node r11 = full ? successor(n11, step - 1) : centre(n11);
+            Node r12 = full ? successor(n12, step - 1) : centre(n12);
+            Node r20 = full ? successor(n20, step - 1) : centre(n20);
+            Node r21 = full ? successor(n21, step - 1) : centre(n21);
+            Node r22 = full ? successor(n22, step - 1) : centre(n22);
+
+            int secondStep = full ? step - 1 : step;
+            result = join(successor(join(r00, r01, r10, r11), secondStep),
+                    successor(join(r01, r02, r11, r12), secondStep),
+                    successor(join(r10, r11, r20, r21), secondStep),
+                    successor(join(r11, r12, r21, r22), secondStep));
+        }
+        n.mResult = result;
+        n.mResultStep = step;
+        return result;
+    }
+
+    /**
+     * Helper method - computes the centre 2x2 cells of a 4x4 node one
+     * generation on.
+     * @param n   Level 2 node
+     * @return   Level 1 node
+     */
+    private Node successorOfLeaf(Node n) {
+        // Packs the 16 cells into bits, row-major from the top-left
+        int bits = 0;
+        for (int row = 0; row < 4; row++)
+            for (int col = 0; col < 4; col++)
+                if (getCell(n, col, row)) bits |= 1 << (row * 4 + col);
+        return join(nextCell(bits, 1, 1), nextCell(bits, 2, 1),
+                nextCell(bits, 1, 2), nextCell(bits, 2, 2));
+    }
+
+    /**
+     * Helper method - computes one inner cell of a packed 4x4 block one
+     * generation on.
+     * @param bits   Packed cells
+     * @param col    Column (1 or 2)
+     * @param row    Row (1 or 2)
+     * @return   Leaf node for the cell
+     */
+    private Node nextCell(int bits, int col, int row) {
+        int neighbours = 0;
+        for (int r = row - 1; r <= row + 1; r++)
+            for (int c = col - 1; c <= col + 1; c++)
+                if (!(c == col && r == row))
+                    neighbours += (bits >>> (r * 4 + c)) & 1;
+        boolean alive = ((bits >>> (row * 4 + col)) & 1) != 0;
+        return mRule.next(alive, neighbours) ? mAlive : mDead;
+    }
+
+    /**
+     * Helper method - gets a cell relative to a node's top-left corner.
+     * @param n     Node
+     * @param col   Column within the node
+     * @param row   Row within the node
+     * @return   True if alive
+     */
+    private static boolean getCell(Node n, long col, long row) {
+        while (n.mLevel > 0) {
+            if (n.mPopulation == 0) return false;
+            long half = 1L << (n.mLevel - 1);
+            boolean east = col >= half, south = row >= half;
+            n = south ? (east ? n.mSE : n.mSW) : (east ? n.mNE : n.mNW);
+            if (east) col -= half;
+            if (south) row -= half;
+        }
+        return n.mPopulation != 0;
+    }
+
+    /**
+     * Helper method - sets a cell relative to a node's top-left corner.
+     * @param n       Node
+     * @param col     Column within the node
+     * @param row     Row within the node
+     * @param value   Whether the cell is alive
+     * @return   Canonical node with the cell set
+     */
+    private Node setCell(Node n, long col, long row, boolean value) {
+        if (n.mLevel == 0) return value ? mAlive : mDead;
+        long half = 1L << (n.mLevel - 1);
+        boolean east = col >= half, south = row >= half;
+        long c = east ? col - half : col, r = south ? row - half : row;
+        return join(
+                (!east && !south) ? setCell(n.mNW, c, r, value) : n.mNW,
+                (east && !south) ? setCell(n.mNE, c, r, value) : n.mNE,
+                (!east && south) ? setCell(n.mSW, c, r, value) : n.mSW,
+                (east && south) ? setCell(n.mSE, c, r, value) : n.mSE);
+    }
+
+    /**
+     * Helper method - sets the live cells of a node in a world, skipping
+     * empty quadrants and quadrants outside the world.
+     * @param world   World to copy into
+     * @param n       Node
+     * @param col     World column of the node's left edge
+     * @param row     World row of the node's top edge
+     */
+    private static void copyInto(World world, Node n, long col, long row) {
+        long size = 1L << n.mLevel;
+        if (n.mPopulation == 0 || col >= world.getWidth() || row >= world.getHeight()
+                || col + size <= 0 || row + size <= 0)
+            return;
+        if (n.mLevel == 0) {
+            world.setCell((int) col, (int) row, true);
+            return;
+        }
+        long half = size >>> 1;
+        copyInto(world, n.mNW, col, row);
+        copyInto(world, n.mNE, col + half, row);
+        copyInto(world, n.mSW, col, row + half);
+        copyInto(world, n.mSE, col + half, row + half);
+    }
+
+    /**
+     * Helper method - rebuilds the node table from the nodes reachable from
+     * the root (and the empty nodes), discarding everything else and all
+     * memoised results.
+     */
+    private void collect() {
+        mNodes.clear();
+        for (Node e : mEmpty)
+            if (e != null) keep(e);
+        keep(mRoot);
+    }
+
+    /**
+     * Helper method - puts a node and its descendants back into the node
+     * table, forgetting their memoised results.
+     * @param n   Node
+     */
+    private void keep(Node n) {
+        if (n.mLevel == 0 || mNodes.putIfAbsent(n, n) != null) return;
+        n.mResult = null;
+        n.mResultStep = -1;
+        keep(n.mNW);
+        keep(n.mNE);
+        keep(n.mSW);
+        keep(n.mSE);
+    }
+
+    /**
+     * Helper method - adds two non-negative counts, saturating at
+     * Long.MAX_VALUE.
+     * @param a
+     * @param b
+     * @return   a + b, or Long.MAX_VALUE on overflow
+     */
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return (sum < 0) ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,259 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmarks for stepping worlds, cloning them and loading pattern stores.
+ * Each benchmark is warmed up, then run repeatedly for a fixed time, and the
+ * results (operations per second, time and bytes allocated per operation)
+ * are written as JSON so that runs can be compared for regressions. Stepping
+ * is run in batches of generations, each from a fresh copy of the starting
+ * world, so that every batch measures the same generations.
+ *
+ * Usage: LifeBenchmark [output.json [measureMillis]] - results go to
+ * standard output if no file is given. This runs in a single JVM, so is a
+ * quick check; WorldBenchmark (built with "mvn -Pjmh package") runs the
+ * stepping and cloning benchmarks under JMH, in forked JVMs.
+ */
+public class LifeBenchmark {
+
+    private static final int[] BOARD_SIZES = {256, 1024, 4096};
+    private static final int[] STORE_LINES = {10_000, 100_000, 1_000_000};
+    private static final int STEP_BATCH = 100;
+    private static final String GLIDER_GUN =
+            "000000000000000000000000100000000000 000000000000000000000010100000000000 "
+            + "000000000000110000001100000000000011 000000000001000100001100000000000011 "
+            + "110000000010000010001100000000000000 110000000010001011000010100000000000 "
+            + "000000000010000010000000100000000000 000000000001000100000000000000000000 "
+            + "000000000000110000000000000000000000";
+
+    private final long mWarmupMillis;
+    private final long mMeasureMillis;
+    private final List<String> mResults = new ArrayList<>();
+
+    /**
+     * A single benchmarked operation.
+     */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Prepares the operation for a batch, outside the time measured.
+     */
+    private interface Setup {
+        Operation create() throws Exception;
+    }
+
+    /**
+     * Constructor - takes the time to spend measuring each benchmark.
+     * @param measureMillis   Measurement time per benchmark (warm-up is half)
+     */
+    public LifeBenchmark(long measureMillis) {
+        mMeasureMillis = measureMillis;
+        mWarmupMillis = measureMillis / 2;
+    }
+
+    /**
+     * Runs every benchmark.
+     * @throws Exception   If a benchmark fails
+     */
+    public void runAll() throws Exception {
+        for (int size : BOARD_SIZES) {
+            benchmarkStep("soup", size, soup(size, 0.3, size));
+            benchmarkStep("gliderGun", size, gliderGun(size));
+            benchmarkStep("sparse", size, sparse(size));
+            benchmarkClone(size, soup(size, 0.3, size));
+        }
+        for (int lines : STORE_LINES)
+            benchmarkStoreLoad(lines);
+    }
+
+    /**
+     * Gets the results of the benchmarks run so far as a JSON array.
+     * @return   JSON
+     */
+    public String toJson() {
+        return "[\n" + String.join(",\n", mResults) + "\n]\n";
+    }
+
+    /**
+     * Benchmarks World.nextGeneration() on a pattern. Each batch steps a
+     * fresh copy of the starting world, which is stepped twice beforehand
+     * so that both of its buffers are allocated outside the time measured.
+     * @param name   Name of the kind of pattern
+     * @param size   Board size
+     * @param p      Pattern
+     * @throws Exception
+     */
+    private void benchmarkStep(String name, int size, Pattern p) throws Exception {
+        World initial = new World(p);
+        measure("step", name, size, STEP_BATCH, () -> {
+            World world = new World(initial);
+            world.nextGeneration();
+            world.nextGeneration();
+            return world::nextGeneration;
+        });
+    }
+
+    /**
+     * Benchmarks World.clone() on a pattern part-way through its life.
+     * @param size   Board size
+     * @param p      Pattern
+     * @throws Exception
+     */
+    private void benchmarkClone(int size, Pattern p) throws Exception {
+        World world = new World(p);
+        for (int i = 0; i < 10; i++) world.nextGeneration();
+        measure("clone", "soup", size, 1, () -> world::clone);
+    }
+
+    /**
+     * Benchmarks loading a PatternStore from a file of the given length.
+     * @param lines   Number of patterns in the file
+     * @throws Exception
+     */
+    private void benchmarkStoreLoad(int lines) throws Exception {
+        File file = File.createTempFile("patterns", ".txt");
+        file.deleteOnExit();
+        Random random = new Random(lines);
+        try (Writer w = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < lines; i++) {
+                Pattern p = soup(4 + random.nextInt(9), 0.4, random.nextLong());
+                w.write("Pattern " + i + ":Author " + (i % 997) + ":" + p.getWidth() + ":"
+                        + p.getHeight() + ":0:0:" + p.getCells() + "\n");
+            }
+        }
+        measure("storeLoad", "random", lines, 1, () -> () -> new PatternStore(file.getPath()));
+        file.delete();
+    }
+
+    /**
+     * Helper method - warms up and then measures an operation in batches,
+     * and records the result. Only the batches themselves are timed, not
+     * the setup before each.
+     * @param benchmark   Benchmark name
+     * @param pattern     Kind of pattern used
+     * @param size        Board size, or number of patterns
+     * @param batch       Number of times to run the operation per batch
+     * @param setup       Creates the operation afresh for each batch
+     * @throws Exception   If the operation fails
+     */
+    private void measure(String benchmark, String pattern, int size, int batch, Setup setup) throws Exception {
+        long end = System.nanoTime() + mWarmupMillis * 1_000_000;
+        while (System.nanoTime() < end) {
+            Operation op = setup.create();
+            for (int i = 0; i < batch; i++) op.run();
+        }
+
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        boolean measured = allocatedBytes() >= 0;
+        // Always runs at least one batch, however slow the operation is
+        while (ops == 0 || nanos < mMeasureMillis * 1_000_000) {
+            Operation op = setup.create();
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) op.run();
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - bytesBefore;
+            ops += batch;
+        }
+        double seconds = nanos / 1e9;
+
+        String result = String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"pattern\": \"%s\", \"size\": %d, \"ops\": %d, "
+                + "\"opsPerSecond\": %.3f, \"nanosPerOp\": %.1f, \"bytesPerOp\": %s}",
+                benchmark, pattern, size, ops, ops / seconds, nanos / (double) ops,
+                measured ? String.valueOf(bytes / ops) : "null");
+        mResults.add(result);
+        System.err.println(result.trim());
+    }
+
+    /**
+     * Helper method - gets the number of bytes allocated by this thread so
+     * far, if the JVM can measure it.
+     * @return   Bytes allocated, or -1 if unavailable
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        return -1;
+    }
+
+    /**
+     * Helper method - creates a square random soup.
+     * @param size      Board size
+     * @param density   Fraction of cells alive
+     * @param seed      Random seed
+     * @return   Pattern
+     * @throws PatternFormatException
+     */
+    private static Pattern soup(int size, double density, long seed) throws PatternFormatException {
+        Random random = new Random(seed);
+        StringBuilder cells = new StringBuilder(size * (size + 1));
+        for (int row = 0; row < size; row++) {
+            if (row > 0) cells.append(' ');
+            for (int col = 0; col < size; col++)
+                cells.append(random.nextDouble() < density ? '1' : '0');
+        }
+        return new Pattern("Soup:Benchmark:" + size + ":" + size + ":0:0:" + cells);
+    }
+
+    /**
+     * Helper method - creates a board with a Gosper glider gun in the corner.
+     * @param size   Board size
+     * @return   Pattern
+     * @throws PatternFormatException
+     */
+    private static Pattern gliderGun(int size) throws PatternFormatException {
+        return new Pattern("Gosper glider gun:Benchmark:" + size + ":" + size + ":1:1:" + GLIDER_GUN);
+    }
+
+    /**
+     * Helper method - creates a board with one glider per 64x64 block along
+     * the diagonal.
+     * @param size   Board size
+     * @return   Pattern
+     * @throws PatternFormatException
+     */
+    private static Pattern sparse(int size) throws PatternFormatException {
+        StringBuilder cells = new StringBuilder();
+        String[] glider = {"010", "001", "111"};
+        for (int row = 0; row < size; row++) {
+            if (row > 0) cells.append(' ');
+            int block = row / 64;
+            int r = row % 64;
+            for (int col = 0; col < size; col++) {
+                int c = col - block * 64;
+                cells.append((r < 3 && c >= 0 && c < 3) ? glider[r].charAt(c) : '0');
+            }
+        }
+        return new Pattern("Sparse:Benchmark:" + size + ":" + size + ":0:0:" + cells);
+    }
+
+    /**
+     * Runs the benchmarks and writes the results.
+     */
+    public static void main(String[] args) throws Exception {
+        long measureMillis = (args.length > 1) ? Long.parseLong(args[1]) : 2000;
+        LifeBenchmark benchmark = new LifeBenchmark(measureMillis);
+        benchmark.runAll();
+        if (args.length > 0) {
+            try (Writer w = new FileWriter(args[0])) {
+                w.write(benchmark.toJson());
+            }
+        }
+        else {
+            System.out.print(benchmark.toJson());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects metrics from the worlds it is added to as a listener - population,
+ * births and deaths, a histogram of step times, bytes allocated and the rate
+ * of stepping - and can publish them as a JMX MBean. One instance can listen
+ * to several worlds, including on different threads; the counts are then
+ * totals over all of them, and the population that of the last world
+ * stepped.
+ */
+public class LifeMetrics implements WorldListener, LifeMetricsMBean {
+
+    /**
+     * Domain of the names metrics are registered under.
+     */
+    public static final String DOMAIN = "uk.ac.cam.cjo41.gameoflife";
+
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final long[] mHistogram = new long[64];
+    private long mGenerations;
+    private long mPopulation;
+    private long mBirths;
+    private long mDeaths;
+    private long mTotalBirths;
+    private long mTotalDeaths;
+    private long mLastNanos;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private long mLastAllocated = -1;
+    private long mTotalAllocated = -1;
+    private long mWindowStart = System.nanoTime();
+    private long mWindowGenerations;
+    private double mRate;
+
+    /**
+     * Records a generation computed by a world.
+     * @param world            World, now at the new generation
+     * @param births           Cells which came alive
+     * @param deaths           Cells which died
+     * @param nanos            Time taken to compute the generation
+     * @param allocatedBytes   Bytes allocated, or -1 if not measured
+     */
+    @Override
+    public synchronized void generationComputed(World world, long births, long deaths, long nanos,
+                                                long allocatedBytes) {
+        mGenerations++;
+        mPopulation = world.getPopulation();
+        mBirths = births;
+        mDeaths = deaths;
+        mTotalBirths += births;
+        mTotalDeaths += deaths;
+
+        mLastNanos = nanos;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        mHistogram[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))]++;
+
+        mLastAllocated = allocatedBytes;
+        if (allocatedBytes >= 0)
+            mTotalAllocated = Math.max(0, mTotalAllocated) + allocatedBytes;
+
+        // Rate is worked out afresh each window, so it follows changes of speed
+        mWindowGenerations++;
+        long now = System.nanoTime();
+        if (now - mWindowStart >= RATE_WINDOW_NANOS) {
+            mRate = mWindowGenerations * 1e9 / (now - mWindowStart);
+            mWindowStart = now;
+            mWindowGenerations = 0;
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, so that they
+     * can be read by JMX clients such as JConsole.
+     * @param name   Name to register under, e.g. the pattern being run
+     * @return   Object name registered
+     * @throws JMException   If the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=LifeMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public synchronized long getGenerations() {
+        return mGenerations;
+    }
+
+    @Override
+    public synchronized long getPopulation() {
+        return mPopulation;
+    }
+
+    @Override
+    public synchronized long getBirths() {
+        return mBirths;
+    }
+
+    @Override
+    public synchronized long getDeaths() {
+        return mDeaths;
+    }
+
+    @Override
+    public synchronized long getTotalBirths() {
+        return mTotalBirths;
+    }
+
+    @Override
+    public synchronized long getTotalDeaths() {
+        return mTotalDeaths;
+    }
+
+    @Override
+    public synchronized double getGenerationsPerSecond() {
+        // Falls towards zero if stepping stops part-way through a window
+        long elapsed = System.nanoTime() - mWindowStart;
+        if (elapsed >= RATE_WINDOW_NANOS)
+            return mWindowGenerations * 1e9 / elapsed;
+        return mRate;
+    }
+
+    @Override
+    public synchronized long getLastStepNanos() {
+        return mLastNanos;
+    }
+
+    @Override
+    public synchronized double getMeanStepNanos() {
+        return (mGenerations == 0) ? 0 : (double) mTotalNanos / mGenerations;
+    }
+
+    @Override
+    public synchronized long getMaxStepNanos() {
+        return mMaxNanos;
+    }
+
+    @Override
+    public synchronized long getMedianStepNanos() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public synchronized long getP99StepNanos() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public synchronized long[] getStepNanosHistogram() {
+        return mHistogram.clone();
+    }
+
+    @Override
+    public synchronized long getAllocatedBytesPerGeneration() {
+        return mLastAllocated;
+    }
+
+    @Override
+    public synchronized long getTotalAllocatedBytes() {
+        return mTotalAllocated;
+    }
+
+    @Override
+    public synchronized void reset() {
+        Arrays.fill(mHistogram, 0);
+        mGenerations = 0;
+        mPopulation = 0;
+        mBirths = 0;
+        mDeaths = 0;
+        mTotalBirths = 0;
+        mTotalDeaths = 0;
+        mLastNanos = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mLastAllocated = -1;
+        mTotalAllocated = -1;
+        mWindowStart = System.nanoTime();
+        mWindowGenerations = 0;
+        mRate = 0;
+    }
+
+    /**
+     * Describes the metrics on one line.
+     * @return   Summary as string
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                "%d generations, %d births, %d deaths, step mean %.0f ns, median <%d ns, p99 <%d ns, max %d ns, %s allocated",
+                mGenerations, mTotalBirths, mTotalDeaths, getMeanStepNanos(), percentile(0.5), percentile(0.99),
+                mMaxNanos, (mTotalAllocated < 0) ? "n/a" : mTotalAllocated + " bytes");
+    }
+
+    /**
+     * Helper method - finds the histogram bucket holding a percentile of
+     * step times.
+     * @param fraction   Percentile, as a fraction
+     * @return   Upper bound of the bucket in nanoseconds, or 0 if empty
+     */
+    private long percentile(double fraction) {
+        if (mGenerations == 0) return 0;
+        long rank = (long) Math.ceil(fraction * mGenerations);
+        long seen = 0;
+        for (int i = 0; i < mHistogram.length; i++) {
+            seen += mHistogram[i];
+            if (seen >= rank) return (i >= 62) ? Long.MAX_VALUE : (2L << i);
+        }
+        return Long.MAX_VALUE;
+    }
+}
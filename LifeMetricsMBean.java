@@ -0,0 +1,105 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+/**
+ * Management interface of LifeMetrics, exposing the activity of the worlds
+ * it listens to over JMX.
+ */
+public interface LifeMetricsMBean {
+
+    /**
+     * Gets the number of generations computed.
+     * @return   Generations
+     */
+    long getGenerations();
+
+    /**
+     * Gets the population after the last generation computed.
+     * @return   Live cells
+     */
+    long getPopulation();
+
+    /**
+     * Gets the births in the last generation computed.
+     * @return   Cells which came alive
+     */
+    long getBirths();
+
+    /**
+     * Gets the deaths in the last generation computed.
+     * @return   Cells which died
+     */
+    long getDeaths();
+
+    /**
+     * Gets the births in every generation computed.
+     * @return   Cells which came alive
+     */
+    long getTotalBirths();
+
+    /**
+     * Gets the deaths in every generation computed.
+     * @return   Cells which died
+     */
+    long getTotalDeaths();
+
+    /**
+     * Gets the recent rate of stepping.
+     * @return   Generations per second, over about the last second
+     */
+    double getGenerationsPerSecond();
+
+    /**
+     * Gets the time taken by the last generation computed.
+     * @return   Nanoseconds
+     */
+    long getLastStepNanos();
+
+    /**
+     * Gets the mean time taken per generation.
+     * @return   Nanoseconds
+     */
+    double getMeanStepNanos();
+
+    /**
+     * Gets the longest time taken by a generation.
+     * @return   Nanoseconds
+     */
+    long getMaxStepNanos();
+
+    /**
+     * Gets the median time taken per generation, to within a factor of two.
+     * @return   Upper bound of the histogram bucket, in nanoseconds
+     */
+    long getMedianStepNanos();
+
+    /**
+     * Gets the time within which 99% of generations were computed, to
+     * within a factor of two.
+     * @return   Upper bound of the histogram bucket, in nanoseconds
+     */
+    long getP99StepNanos();
+
+    /**
+     * Gets the histogram of step times.
+     * @return   Count of generations in each bucket - bucket i holds times
+     *           from 2^i to 2^(i+1) - 1 nanoseconds
+     */
+    long[] getStepNanosHistogram();
+
+    /**
+     * Gets the bytes allocated while computing the last generation.
+     * @return   Bytes, or -1 if not measured
+     */
+    long getAllocatedBytesPerGeneration();
+
+    /**
+     * Gets the bytes allocated while computing every generation.
+     * @return   Bytes, or -1 if not measured
+     */
+    long getTotalAllocatedBytes();
+
+    /**
+     * Clears every count and the histogram.
+     */
+    void reset();
+}
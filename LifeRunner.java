@@ -0,0 +1,433 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless command-line runner - runs patterns from a PatternStore for a
+ * number of generations as fast as possible, with no GUI, and reports the
+ * speed and final population of each. Several patterns are run concurrently,
+ * one per thread. With cycle detection on, a bounded world which settles
+ * into a still life or oscillator stops being stepped, and its final state
+ * is worked out from the cycle. With metrics on, the bounded worlds' activity
+ * and step times are collected, published over JMX while running and
+ * summarised at the end.
+ *
+ * Usage: LifeRunner [--engine=world|parallel|sparse|hashlife] [--threads=N]
+ *        [--detect-cycles] [--metrics] patternsFile generations patternName...
+ */
+public class LifeRunner {
+
+    private static final String USAGE = "Usage: LifeRunner [--engine=world|parallel|sparse|hashlife] [--threads=N] "
+            + "[--detect-cycles] [--metrics] patternsFile generations patternName...";
+
+    /**
+     * The ways a pattern can be run.
+     */
+    public enum Engine {
+        /** Bounded World, stepped on one thread */
+        WORLD,
+        /** Bounded World, each generation split across all cores */
+        PARALLEL,
+        /** Unbounded SparseWorld */
+        SPARSE,
+        /** Unbounded HashLife, advanced in powers of two */
+        HASHLIFE
+    }
+
+    /**
+     * Outcome of running one pattern.
+     */
+    public static class Result {
+
+        private final String mName;
+        private final long mGenerations;
+        private final long mSimulated;
+        private final long mPopulation;
+        private final long mWallNanos;
+        private final long mCpuNanos;
+        private final long mPeriod;
+        private final long mCycleStart;
+
+        /**
+         * Constructor - takes the measurements of a run.
+         * @param name          Pattern name
+         * @param generations   Generations run
+         * @param simulated     Generations actually stepped, fewer than
+         *                      generations if a cycle let the rest be skipped
+         * @param population    Final population
+         * @param wallNanos     Elapsed time
+         * @param cpuNanos      CPU time of the running thread, or -1
+         * @param period        Period of the cycle found, or -1
+         * @param cycleStart    First generation of the cycle found, or -1
+         */
+        Result(String name, long generations, long simulated, long population, long wallNanos, long cpuNanos,
+               long period, long cycleStart) {
+            mName = name;
+            mGenerations = generations;
+            mSimulated = simulated;
+            mPopulation = population;
+            mWallNanos = wallNanos;
+            mCpuNanos = cpuNanos;
+            mPeriod = period;
+            mCycleStart = cycleStart;
+        }
+
+        /**
+         * Gets the name of the pattern which was run.
+         * @return   Pattern name
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Gets the number of generations run.
+         * @return   Generations
+         */
+        public long getGenerations() {
+            return mGenerations;
+        }
+
+        /**
+         * Gets the number of generations actually stepped. This is fewer than
+         * the generations run when cycle detection skipped the rest.
+         * @return   Generations simulated
+         */
+        public long getSimulatedGenerations() {
+            return mSimulated;
+        }
+
+        /**
+         * Gets the number of live cells after the last generation.
+         * @return   Population
+         */
+        public long getPopulation() {
+            return mPopulation;
+        }
+
+        /**
+         * Gets the elapsed time of the run.
+         * @return   Wall time in nanoseconds
+         */
+        public long getWallNanos() {
+            return mWallNanos;
+        }
+
+        /**
+         * Gets the CPU time of the thread which ran the pattern.
+         * @return   CPU time in nanoseconds, or -1 if it was not measured
+         */
+        public long getCpuNanos() {
+            return mCpuNanos;
+        }
+
+        /**
+         * Gets the period of the still life or oscillator the pattern
+         * settled into, if cycle detection found one.
+         * @return   Period in generations, or -1 if none was found
+         */
+        public long getPeriod() {
+            return mPeriod;
+        }
+
+        /**
+         * Gets the generation from which the pattern repeated, if cycle
+         * detection found a cycle.
+         * @return   Generation number, or -1 if none was found
+         */
+        public long getCycleStart() {
+            return mCycleStart;
+        }
+
+        /**
+         * Gets the number of generations stepped per second of wall time.
+         * Skipped generations are not counted.
+         * @return   Generations per second
+         */
+        public double getGenerationsPerSecond() {
+            return mSimulated / (mWallNanos / 1e9);
+        }
+
+        /**
+         * Describes the result on one line.
+         * @return   Result as string
+         */
+        @Override
+        public String toString() {
+            String result = String.format(Locale.ROOT, "%s: %d generations, population %d, %.1f ms wall, %s cpu, %.1f gen/s",
+                    mName, mGenerations, mPopulation, mWallNanos / 1e6,
+                    (mCpuNanos < 0) ? "n/a" : String.format(Locale.ROOT, "%.1f ms", mCpuNanos / 1e6),
+                    getGenerationsPerSecond());
+            if (mPeriod > 0)
+                result += ", period " + mPeriod + " from generation " + mCycleStart
+                        + " (" + mSimulated + " simulated, " + (mGenerations - mSimulated) + " skipped)";
+            return result;
+        }
+    }
+
+    private final PatternStore mStore;
+    private final Engine mEngine;
+    private boolean mDetectCycles;
+    private LifeMetrics mMetrics;
+
+    /**
+     * Constructor - takes the store to find patterns in and the engine to
+     * run them with.
+     * @param store    PatternStore object
+     * @param engine   Engine
+     */
+    public LifeRunner(PatternStore store, Engine engine) {
+        mStore = store;
+        mEngine = engine;
+    }
+
+    /**
+     * Turns cycle detection on or off for bounded worlds. Cycles are only
+     * looked for by the WORLD and PARALLEL engines.
+     * @param detectCycles   True to stop stepping once the world repeats
+     */
+    public void setDetectCycles(boolean detectCycles) {
+        mDetectCycles = detectCycles;
+    }
+
+    /**
+     * Sets metrics to collect from bounded worlds, which are only run by the
+     * WORLD and PARALLEL engines.
+     * @param metrics   Metrics to add each world's generations to, or null
+     */
+    public void setMetrics(LifeMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Runs a single pattern on the calling thread.
+     * @param name          Name of pattern
+     * @param generations   Number of generations to run
+     * @return   Result
+     * @throws PatternNotFound   If no pattern has that name
+     * @throws PatternFormatException   If the pattern's cells are malformed
+     */
+    public Result run(String name, long generations) throws PatternNotFound, PatternFormatException {
+        Pattern p = mStore.getPatternByName(name);
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean cpuTimed = bean.isCurrentThreadCpuTimeSupported();
+        long cpuStart = cpuTimed ? bean.getCurrentThreadCpuTime() : 0;
+        long start = System.nanoTime();
+
+        long population;
+        long simulated = generations;
+        CycleDetector detector = null;
+        switch (mEngine) {
+            case SPARSE: {
+                SparseWorld world = new SparseWorld(p);
+                for (long g = 0; g < generations; g++) world.nextGeneration();
+                population = world.getPopulation();
+                break;
+            }
+            case HASHLIFE: {
+                HashLife life = new HashLife(p);
+                life.advanceBy(generations);
+                population = life.getPopulation();
+                break;
+            }
+            default: {
+                World world = new World(p);
+                if (mMetrics != null)
+                    world.addListener(mMetrics);
+                if (mEngine == Engine.PARALLEL)
+                    world.setThreads(Runtime.getRuntime().availableProcessors());
+                // Generations are counted here rather than by the world, whose
+                // int counter would overflow on long runs
+                if (mDetectCycles) {
+                    detector = new CycleDetector();
+                    detector.observe(world, 0);
+                }
+                for (long g = 0; g < generations; g++) {
+                    world.nextGeneration();
+                    if (detector != null && detector.observe(world, g + 1)) {
+                        // World is back in the state it was in at the cycle's
+                        // start - only the last part-cycle needs stepping
+                        long remaining = detector.equivalentGeneration(generations) - detector.getCycleStart();
+                        for (long i = 0; i < remaining; i++) world.nextGeneration();
+                        simulated = g + 1 + remaining;
+                        break;
+                    }
+                }
+                population = world.getPopulation();
+                break;
+            }
+        }
+
+        long wall = System.nanoTime() - start;
+        // CPU time only covers this thread, not a parallel world's workers
+        long cpu = (cpuTimed && mEngine != Engine.PARALLEL) ? bean.getCurrentThreadCpuTime() - cpuStart : -1;
+        boolean found = detector != null && detector.isCycleFound();
+        return new Result(name, generations, simulated, population, wall, cpu,
+                found ? detector.getPeriod() : -1, found ? detector.getCycleStart() : -1);
+    }
+
+    /**
+     * Runs several patterns concurrently.
+     * @param names         Names of patterns
+     * @param generations   Number of generations to run each for
+     * @param threads       Number of patterns to run at once
+     * @return   Results, in the same order as the names
+     * @throws PatternNotFound   If a name does not match a pattern
+     * @throws PatternFormatException   If a pattern's cells are malformed
+     * @throws InterruptedException   If interrupted while waiting
+     */
+    public List<Result> runAll(List<String> names, long generations, int threads)
+            throws PatternNotFound, PatternFormatException, InterruptedException {
+        // Fails fast on unknown names before any work starts
+        for (String name : names) {
+            try {
+                mStore.getPatternByName(name);
+            }
+            catch (PatternNotFound e) {
+                throw new PatternNotFound("Pattern not found: " + name);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (String name : names)
+                futures.add(executor.submit(() -> run(name, generations)));
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> f : futures) {
+                try {
+                    results.add(f.get());
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof PatternFormatException)
+                        throw (PatternFormatException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Helper method - parses the name of an engine, exiting with a usage
+     * message if it is not one.
+     * @param name   Engine name, in any case
+     * @return   Engine
+     */
+    private static Engine parseEngine(String name) {
+        try {
+            return Engine.valueOf(name.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            List<String> engines = new ArrayList<>();
+            for (Engine engine : Engine.values())
+                engines.add(engine.name().toLowerCase(Locale.ROOT));
+            System.err.println("Unknown engine '" + name + "' - valid engines are " + String.join(", ", engines) + ".");
+            System.err.println(USAGE);
+            System.exit(2);
+            return null;
+        }
+    }
+
+    /**
+     * Helper method - parses a number from the command line, exiting with a
+     * usage message if it is not a whole number in range.
+     * @param value   Text given
+     * @param what    What the number is, for the message
+     * @param min     Smallest value allowed
+     * @param max     Largest value allowed
+     * @return   Number
+     */
+    private static long parseNumber(String value, String what, long min, long max) {
+        try {
+            long n = Long.parseLong(value);
+            if (n >= min && n <= max) return n;
+        }
+        catch (NumberFormatException e) {
+            // Reported below, as for a number out of range
+        }
+        System.err.println("Invalid " + what + " '" + value + "' - expected a whole number from " + min
+                + " to " + max + ".");
+        System.err.println(USAGE);
+        System.exit(2);
+        return 0;
+    }
+
+    /**
+     * Parses the command line, runs the patterns and prints the results.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Engine engine = Engine.WORLD;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean detectCycles = false;
+        boolean metrics = false;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--detect-cycles"))
+                detectCycles = true;
+            else if (arg.equals("--metrics"))
+                metrics = true;
+            else if (arg.startsWith("--engine="))
+                engine = parseEngine(arg.substring("--engine=".length()));
+            else if (arg.startsWith("--threads="))
+                threads = (int) parseNumber(arg.substring("--threads=".length()), "thread count", 1, Integer.MAX_VALUE);
+            else
+                positional.add(arg);
+        }
+        if (positional.size() < 3) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        long generations = parseNumber(positional.get(1), "generation count", 0, Long.MAX_VALUE);
+        PatternStore store = new PatternStore(positional.get(0), Runtime.getRuntime().availableProcessors());
+        List<String> names = positional.subList(2, positional.size());
+        LifeRunner runner = new LifeRunner(store, engine);
+        runner.setDetectCycles(detectCycles);
+        LifeMetrics lifeMetrics = null;
+        if (metrics) {
+            lifeMetrics = new LifeMetrics();
+            runner.setMetrics(lifeMetrics);
+            try {
+                lifeMetrics.register("LifeRunner");
+            }
+            catch (JMException e) {
+                System.err.println("Metrics not published over JMX: " + e.getMessage());
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<Result> results = runner.runAll(names, generations, threads);
+            long simulated = 0;
+            for (Result r : results) {
+                System.out.println(r);
+                simulated += r.getSimulatedGenerations();
+            }
+            long wall = System.nanoTime() - start;
+            // Counts only the generations stepped, not those a cycle skipped
+            System.out.println(String.format(Locale.ROOT, "%d patterns, engine %s, %.1f ms wall, %.1f gen/s overall",
+                    results.size(), engine.name().toLowerCase(Locale.ROOT), wall / 1e6,
+                    simulated / (wall / 1e9)));
+            if (lifeMetrics != null)
+                System.out.println(lifeMetrics);
+        }
+        catch (PatternNotFound | PatternFormatException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package uk.ac.cam.cjo41.gameoflife;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
- * Represents an initial world pattern.
+ * Represents an initial world pattern. Patterns parsed straight from a
+ * buffer keep a reference to their cells in the buffer, and only decode
+ * them when they are needed. The first time a pattern initialises a world,
+ * its cells are validated and decoded into a bitmap with the same layout as
+ * World's rows, which is then copied into every world it initialises.
  */
 public class Pattern implements Comparable<Pattern> {
 
+    // Stands in for the bitmap of a pattern whose cells are malformed
+    private static final long[][] MALFORMED = new long[0][];
+
     private String mName;
     private String mAuthor;
     private int mWidth;
@@ -12,6 +22,15 @@ public class Pattern implements Comparable<Pattern> {
     private int mStartCol;
     private int mStartRow;
     private String mCells;
+    private Rule mRule = Rule.CONWAY;
+    // Undecoded cells, [mCellsStart, mCellsEnd) of mSource, if mCells is null
+    private ByteBuffer mSource;
+    private int mCellsStart;
+    private int mCellsEnd;
+    // Or undecoded cells at mCellsStart in mCatalogue's cell data
+    private PatternCatalogue mCatalogue;
+    // Decoded cells - row i, cell j is bit j % 64 of word j / 64
+    private volatile long[][] mBitmap;
     
     /**
      * Gets the pattern name.
@@ -66,11 +85,26 @@ public class Pattern implements Comparable<Pattern> {
      * @return   Cell definition
      */
     public String getCells() {
+        if (mCells == null) {
+            if (mCatalogue != null)
+                mCells = mCatalogue.cells(mCellsStart);
+            else
+                mCells = decode(mSource, mCellsStart, mCellsEnd);
+        }
         return mCells;
     }
     
     /**
-     * Constructor - creates new pattern from pattern format string.
+     * Gets the rule which this pattern runs under.
+     * @return   Rule (Conway's, unless the pattern names another)
+     */
+    public Rule getRule() {
+        return mRule;
+    }
+    
+    /**
+     * Constructor - creates new pattern from pattern format string. An
+     * optional eighth field gives the rule in B/S notation, e.g. "B36/S23".
      * @param format   Pattern format string
      * @throws PatternFormatException
      */
@@ -83,7 +117,7 @@ public class Pattern implements Comparable<Pattern> {
         String[] arguments = format.split(":");
 
         // throws exception if wrong number of args
-        if (arguments.length != 7)
+        if (arguments.length != 7 && arguments.length != 8)
             throw new PatternFormatException("Invalid pattern format: Incorrect number of fields in pattern (found " + arguments.length + ").");
 
         // initialises member variables
@@ -115,30 +149,227 @@ public class Pattern implements Comparable<Pattern> {
         }
 
         mCells = arguments[6];
+
+        // throws exception if the rule can't be parsed
+        if (arguments.length == 8)
+            mRule = Rule.parse(arguments[7]);
     }
     
+    /**
+     * Constructor - creates new pattern from the fields of a record in a
+     * PatternCatalogue. The cells stay in the catalogue until they are
+     * needed.
+     * @param name          Name of pattern
+     * @param author        Author of pattern
+     * @param width         Width of pattern
+     * @param height        Height of pattern
+     * @param startCol      Column at which the cells start
+     * @param startRow      Row at which the cells start
+     * @param rule          Rule
+     * @param catalogue     Catalogue holding the cells
+     * @param cellsOffset   Offset of the cells in the catalogue
+     */
+    Pattern(String name, String author, int width, int height, int startCol, int startRow, Rule rule,
+            PatternCatalogue catalogue, int cellsOffset) {
+        mName = name;
+        mAuthor = author;
+        mWidth = width;
+        mHeight = height;
+        mStartCol = startCol;
+        mStartRow = startRow;
+        mRule = rule;
+        mCatalogue = catalogue;
+        mCellsStart = cellsOffset;
+    }
+
+    /**
+     * Constructor - creates new pattern from the pattern format string held
+     * in part of a buffer, e.g. a line of a memory-mapped file, without
+     * first copying it into a String. Only the name, author and rule are
+     * decoded - the cells stay in the buffer until they are needed. The
+     * buffer is only read with absolute gets, so one buffer can be shared
+     * by patterns parsed on several threads, and must not change afterwards.
+     * @param source   Buffer holding the pattern format string
+     * @param start    Index of the first byte of the string
+     * @param end      Index after the last byte of the string
+     * @throws PatternFormatException
+     */
+    Pattern(ByteBuffer source, int start, int end) throws PatternFormatException {
+        // throw exception if format empty
+        if (start == end)
+            throw new PatternFormatException("Please specify a pattern.");
+
+        // finds the fields, dropping trailing empty ones as String.split() does
+        int[] bounds = new int[9];
+        int fields = 0;
+        bounds[0] = start;
+        for (int i = start; i < end; i++) {
+            if (source.get(i) == ':') {
+                fields++;
+                if (fields < bounds.length) bounds[fields] = i + 1;
+            }
+        }
+        fields++;
+        int last = end;
+        while (last > start && source.get(last - 1) == ':') {
+            fields--;
+            last--;
+        }
+        if (last == start) fields = 0;
+
+        // throws exception if wrong number of args
+        if (fields != 7 && fields != 8)
+            throw new PatternFormatException("Invalid pattern format: Incorrect number of fields in pattern (found " + fields + ").");
+
+        // initialises member variables
+        mName = decode(source, bounds[0], bounds[1] - 1);
+        mAuthor = decode(source, bounds[1], bounds[2] - 1);
+        mWidth = parseNumber(source, bounds[2], bounds[3] - 1, "width");
+        mHeight = parseNumber(source, bounds[3], bounds[4] - 1, "height");
+        mStartCol = parseNumber(source, bounds[4], bounds[5] - 1, "startX");
+        mStartRow = parseNumber(source, bounds[5], bounds[6] - 1, "startY");
+
+        // cells are decoded lazily
+        mSource = source;
+        mCellsStart = bounds[6];
+        mCellsEnd = (fields == 8) ? bounds[7] - 1 : last;
+
+        // throws exception if the rule can't be parsed
+        if (fields == 8)
+            mRule = Rule.parse(decode(source, bounds[7], last));
+    }
+
+    /**
+     * Helper method - decodes part of a buffer as UTF-8 text.
+     * @param source   Buffer
+     * @param start    Index of the first byte
+     * @param end      Index after the last byte
+     * @return   Decoded string
+     */
+    private static String decode(ByteBuffer source, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method - parses a numeric field straight from a buffer. Plain
+     * runs of digits are parsed in place; anything else is left to
+     * Integer.parseInt(), so the same numbers are accepted as in the String
+     * constructor.
+     * @param source   Buffer
+     * @param start    Index of the first byte of the field
+     * @param end      Index after the last byte of the field
+     * @param field    Name of the field, for error messages
+     * @return   Value of the field
+     * @throws PatternFormatException   If the field is not a number
+     */
+    private static int parseNumber(ByteBuffer source, int start, int end, String field) throws PatternFormatException {
+        // Up to 9 digits cannot overflow an int
+        if (end > start && end - start <= 9) {
+            int value = 0;
+            int i = start;
+            for (; i < end; i++) {
+                int digit = source.get(i) - '0';
+                if (digit < 0 || digit > 9) break;
+                value = value * 10 + digit;
+            }
+            if (i == end) return value;
+        }
+        String text = decode(source, start, end);
+        try { return Integer.parseInt(text); }
+        catch (NumberFormatException e) {
+            throw new PatternFormatException("Invalid pattern format: Could not interpret the " + field + " field as a number ('" + text + "' given).");
+        }
+    }
+
     /**
      * Takes a world object and initialises it, so that it represents
-     * generation 0 of this pattern.
+     * generation 0 of this pattern. Cells which fall outside the world are
+     * left out.
      * @param world   World to be initialised
      * @throws PatternFormatException
      */
     public void initialise(World world) throws PatternFormatException {
-        String[] cellsArr = mCells.split(" ");
+        world.setCells(bitmap(), mStartCol, mStartRow);
+    }
 
-        for (int i = 0; i < cellsArr.length; i++) {
-            char[] currentRow = cellsArr[i].toCharArray();
-            for (int j = 0; j < currentRow.length; j++) {
-                if (currentRow[j] == '1')
-                    world.setCell(j+mStartCol, i+mStartRow, true);
-                // throws exception if pattern not composed of 0, 1 or space
-                else if (currentRow[j] != '0' && currentRow[j] != ' ')
-                    throw new PatternFormatException("Invalid pattern format: Malformed pattern '" + mCells + "'.");
+    /**
+     * Helper method - gets the decoded cells, validating and decoding them
+     * the first time. A malformed pattern is remembered as such, so it
+     * is not validated again.
+     * @return   Bitmap of cells
+     * @throws PatternFormatException   If the cells are not all 0s, 1s and
+     *                                  spaces
+     */
+    private long[][] bitmap() throws PatternFormatException {
+        long[][] bitmap = mBitmap;
+        if (bitmap == null) {
+            if (mCells == null && mCatalogue != null) {
+                bitmap = mCatalogue.bitmap(mCellsStart);
+                // Catalogues keep cells which are not all 0s and 1s as text
+                if (bitmap == null) getCells();
+            }
+            if (bitmap == null)
+                bitmap = decodeBitmap();
+            mBitmap = bitmap;
+        }
+        // throws exception if pattern not composed of 0, 1 or space
+        if (bitmap == MALFORMED)
+            throw new PatternFormatException("Invalid pattern format: Malformed pattern '" + getCells() + "'.");
+        return bitmap;
+    }
 
+    /**
+     * Helper method - decodes the cell definition, from the String or
+     * straight from the source buffer. Each space starts a new row, as
+     * splitting the cells on spaces would.
+     * @return   Bitmap of cells, or MALFORMED
+     */
+    private long[][] decodeBitmap() {
+        int length = (mCells != null) ? mCells.length() : mCellsEnd - mCellsStart;
+        // First pass validates and finds the size of the bitmap
+        int rows = 1, width = 0, col = 0;
+        for (int i = 0; i < length; i++) {
+            char c = cellAt(i);
+            if (c == ' ') {
+                rows++;
+                col = 0;
+            }
+            else if (c == '0' || c == '1') {
+                width = Math.max(width, ++col);
+            }
+            else {
+                return MALFORMED;
+            }
+        }
+        long[][] bitmap = new long[rows][(width + 63) >>> 6];
+        int row = 0;
+        col = 0;
+        for (int i = 0; i < length; i++) {
+            char c = cellAt(i);
+            if (c == ' ') {
+                row++;
+                col = 0;
+                continue;
             }
+            if (c == '1') bitmap[row][col >>> 6] |= 1L << col;
+            col++;
         }
+        return bitmap;
     }
-    
+
+    /**
+     * Helper method - gets a character of the cell definition, without
+     * decoding the whole definition if it is still in the source buffer.
+     * @param i   Index within the cell definition
+     * @return   Character
+     */
+    private char cellAt(int i) {
+        if (mCells != null) return mCells.charAt(i);
+        return (char) (mSource.get(mCellsStart + i) & 0xFF);
+    }
+
     /**
      * Lexicographical comparator - by pattern name.
      * @param p   Pattern with which to compare this
@@ -0,0 +1,174 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * On-disk cache of remote pattern files. A copy fetched recently is used
+ * without touching the network at all; an older copy is revalidated with a
+ * conditional request (ETag / Last-Modified), so an unchanged file is not
+ * downloaded again. If the network fails, a stale copy is used rather than
+ * nothing.
+ */
+public class PatternCache {
+
+    /**
+     * Default time for which a fetched file is used without revalidating it.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int TIMEOUT_MILLIS = 15_000;
+    private static final int MAX_REDIRECTS = 5;
+
+    private final File mDirectory;
+    private final long mMaxAgeMillis;
+
+    /**
+     * Constructor - uses the default cache directory (.gameoflife/cache in
+     * the user's home directory) and maximum age.
+     */
+    public PatternCache() {
+        this(new File(System.getProperty("user.home"), ".gameoflife" + File.separator + "cache"),
+                DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Constructor - takes the directory to keep files in and how long to
+     * trust them for.
+     * @param directory      Cache directory, created if needed
+     * @param maxAgeMillis   Time for which a file is used without
+     *                       revalidating it (0 to always revalidate)
+     */
+    public PatternCache(File directory, long maxAgeMillis) {
+        mDirectory = directory;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Gets a local copy of a remote file, fetching or revalidating it if the
+     * cached copy is missing or too old.
+     * @param url   URL of file (http or https)
+     * @return   Cached file
+     * @throws IOException   If the file could not be fetched and no copy is
+     *                       cached
+     */
+    public synchronized File fetch(String url) throws IOException {
+        String key = key(url);
+        File data = new File(mDirectory, key + ".txt");
+        File metaFile = new File(mDirectory, key + ".properties");
+        Properties meta = new Properties();
+        if (data.isFile() && metaFile.isFile()) {
+            try (InputStream in = new FileInputStream(metaFile)) {
+                meta.load(in);
+            }
+        }
+        else {
+            data.delete();
+        }
+        long fetched = Long.parseLong(meta.getProperty("fetched", "0"));
+        if (data.isFile() && System.currentTimeMillis() - fetched < mMaxAgeMillis)
+            return data;
+
+        try {
+            HttpURLConnection conn = open(url, meta);
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && data.isFile()) {
+                conn.disconnect();
+            }
+            else if (code == HttpURLConnection.HTTP_OK) {
+                Files.createDirectories(mDirectory.toPath());
+                // Downloads beside the cached copy, then swaps it in whole
+                File part = File.createTempFile(key, ".part", mDirectory);
+                try (InputStream in = conn.getInputStream()) {
+                    Files.copy(in, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(part.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                finally {
+                    part.delete();
+                }
+                meta.clear();
+                meta.setProperty("url", url);
+                if (conn.getHeaderField("ETag") != null)
+                    meta.setProperty("etag", conn.getHeaderField("ETag"));
+                if (conn.getHeaderField("Last-Modified") != null)
+                    meta.setProperty("lastModified", conn.getHeaderField("Last-Modified"));
+            }
+            else {
+                conn.disconnect();
+                throw new IOException("Could not fetch " + url + " (HTTP " + code + ").");
+            }
+        }
+        catch (IOException e) {
+            // Falls back to the stale copy, if there is one
+            if (data.isFile()) return data;
+            throw e;
+        }
+
+        meta.setProperty("fetched", String.valueOf(System.currentTimeMillis()));
+        try (OutputStream out = new FileOutputStream(metaFile)) {
+            meta.store(out, null);
+        }
+        return data;
+    }
+
+    /**
+     * Helper method - opens a conditional request for a URL, following
+     * redirects (including from http to https, which HttpURLConnection
+     * will not do by itself).
+     * @param url    URL
+     * @param meta   Validators of the cached copy
+     * @return   Connection with the final response
+     * @throws IOException   If the request fails
+     */
+    private static HttpURLConnection open(String url, Properties meta) throws IOException {
+        URL target = new URL(url);
+        for (int redirects = 0; ; redirects++) {
+            URLConnection c = target.openConnection();
+            if (!(c instanceof HttpURLConnection))
+                throw new IOException("Not an http or https URL: " + url);
+            HttpURLConnection conn = (HttpURLConnection) c;
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+            conn.setInstanceFollowRedirects(false);
+            if (meta.getProperty("etag") != null)
+                conn.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+            if (meta.getProperty("lastModified") != null)
+                conn.setRequestProperty("If-Modified-Since", meta.getProperty("lastModified"));
+            int code = conn.getResponseCode();
+            String location = conn.getHeaderField("Location");
+            if (code < 300 || code > 308 || code == HttpURLConnection.HTTP_NOT_MODIFIED || location == null)
+                return conn;
+            conn.disconnect();
+            if (redirects == MAX_REDIRECTS)
+                throw new IOException("Too many redirects fetching " + url + ".");
+            target = new URL(target, location);
+        }
+    }
+
+    /**
+     * Helper method - gets the file name a URL is cached under.
+     * @param url   URL
+     * @return   Hex SHA-256 of the URL
+     */
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest)
+                key.append(String.format("%02x", b));
+            return key.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary catalogue of patterns, which is memory-mapped rather than
+ * parsed, so opening one costs the same however many patterns it holds, and
+ * a single pattern can be fetched without reading the others.
+ *
+ * Layout (big-endian ints):
+ * - header: magic, version, pattern count, string count, and the offsets of
+ *   the name index, author index, string table and cell data
+ * - records: one per pattern, in the order the patterns were written - ids
+ *   of the name and author, width, height, start column, start row, id of
+ *   the rule (-1 for Conway's) and offset of the cells
+ * - name index: record numbers sorted by name (then record number)
+ * - author index: record numbers sorted by author (then name, record number)
+ * - string table: offsets of each string (plus the end), then their UTF-8
+ * - cell data: per pattern, the number of rows and each row's length as
+ *   variable-length ints, then the cells bit-packed, 8 to a byte. Cells
+ *   which are not all 0s and 1s are kept as text after a row count of 0.
+ */
+public class PatternCatalogue {
+
+    /**
+     * First four bytes of every catalogue.
+     */
+    public static final int MAGIC = 0x474F4C43;   // "GOLC"
+
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_INTS = 8;
+    private static final int RECORD_SIZE = RECORD_INTS * 4;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mStringCount;
+    private final int mNameIndex;
+    private final int mAuthorIndex;
+    private final int mStringTable;
+    private final String[] mStrings;
+    private final Pattern[] mPatterns;
+
+    /**
+     * Constructor - takes a buffer holding a catalogue.
+     * @param buffer   Buffer, which must not change afterwards
+     * @throws IOException   If the buffer does not hold a catalogue
+     */
+    public PatternCatalogue(ByteBuffer buffer) throws IOException {
+        String error = checkHeader(buffer);
+        if (error != null)
+            throw new IOException(error);
+        mBuffer = buffer;
+        mCount = buffer.getInt(8);
+        mStringCount = buffer.getInt(12);
+        mNameIndex = buffer.getInt(16);
+        mAuthorIndex = buffer.getInt(20);
+        mStringTable = buffer.getInt(24);
+        // Strings and patterns are decoded the first time they are needed
+        mStrings = new String[mStringCount];
+        mPatterns = new Pattern[mCount];
+    }
+
+    /**
+     * Opens a catalogue file by mapping it into memory.
+     * @param filename   Path to file
+     * @return   Catalogue
+     * @throws IOException   If the file cannot be read or is not a catalogue
+     */
+    public static PatternCatalogue open(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Pattern catalogue " + filename + " is too large to map.");
+            return new PatternCatalogue(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Checks whether a buffer holds a catalogue this version can read - it
+     * must start with the magic number and version, and the records, indexes
+     * and string offsets its header describes must fit in it. A text file
+     * which merely starts with "GOLC" fails the check.
+     * @param buffer   Buffer
+     * @return   True if it looks like a catalogue
+     */
+    static boolean isCatalogue(ByteBuffer buffer) {
+        return checkHeader(buffer) == null;
+    }
+
+    /**
+     * Helper method - checks a catalogue's header against the layout written
+     * by write().
+     * @param buffer   Buffer
+     * @return   Description of the problem, or null if the header is valid
+     */
+    private static String checkHeader(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            return "Not a pattern catalogue.";
+        if (buffer.getInt(4) != VERSION)
+            return "Unsupported pattern catalogue version " + buffer.getInt(4) + ".";
+        long count = buffer.getInt(8);
+        long stringCount = buffer.getInt(12);
+        long nameIndex = HEADER_SIZE + count * RECORD_SIZE;
+        long authorIndex = nameIndex + 4 * count;
+        long stringTable = authorIndex + 4 * count;
+        long cellData = buffer.getInt(28);
+        // Every section must be where write() puts it, and in the buffer
+        if (count < 0 || stringCount < 0 || buffer.getInt(16) != nameIndex || buffer.getInt(20) != authorIndex
+                || buffer.getInt(24) != stringTable || cellData < stringTable + 4 * (stringCount + 1)
+                || cellData > buffer.limit())
+            return "Pattern catalogue is truncated or corrupt.";
+        return null;
+    }
+
+    /**
+     * Gets the number of patterns in the catalogue.
+     * @return   Number of patterns
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Gets a pattern by its record number, decoding only that pattern's
+     * fields the first time it is asked for - its cells are decoded when
+     * they are used.
+     * @param i   Record number (0 to size() - 1)
+     * @return   Pattern
+     * @throws PatternFormatException   If the pattern's rule is malformed
+     */
+    public Pattern getPattern(int i) throws PatternFormatException {
+        if (i < 0 || i >= mCount)
+            throw new IndexOutOfBoundsException("Pattern " + i + " of " + mCount + ".");
+        Pattern p = mPatterns[i];
+        if (p == null) {
+            p = decodePattern(i);
+            mPatterns[i] = p;
+        }
+        return p;
+    }
+
+    /**
+     * Gets the record number of the pattern at a position in the name index.
+     * @param i   Position (0 to size() - 1)
+     * @return   Record number
+     */
+    int getRecordByName(int i) {
+        return mBuffer.getInt(mNameIndex + 4 * i);
+    }
+
+    /**
+     * Gets the record number of the pattern at a position in the author
+     * index.
+     * @param i   Position (0 to size() - 1)
+     * @return   Record number
+     */
+    int getRecordByAuthor(int i) {
+        return mBuffer.getInt(mAuthorIndex + 4 * i);
+    }
+
+    /**
+     * Helper method - decodes the fields of a pattern.
+     * @param i   Record number
+     * @return   Pattern
+     * @throws PatternFormatException   If the pattern's rule is malformed
+     */
+    private Pattern decodePattern(int i) throws PatternFormatException {
+        int record = HEADER_SIZE + i * RECORD_SIZE;
+        int ruleId = mBuffer.getInt(record + 24);
+        Rule rule = (ruleId < 0) ? Rule.CONWAY : Rule.parse(string(ruleId));
+        return new Pattern(string(mBuffer.getInt(record)), string(mBuffer.getInt(record + 4)),
+                mBuffer.getInt(record + 8), mBuffer.getInt(record + 12),
+                mBuffer.getInt(record + 16), mBuffer.getInt(record + 20),
+                rule, this, mBuffer.getInt(record + 28));
+    }
+
+    /**
+     * Gets the pattern with the given name, by binary search of the name
+     * index. Of patterns with the same name, the last one written wins, as
+     * in PatternStore.
+     * @param name   Name of pattern
+     * @return   Pattern
+     * @throws PatternNotFound   If no pattern has that name
+     * @throws PatternFormatException   If the pattern's rule is malformed
+     */
+    public Pattern getPatternByName(String name) throws PatternNotFound, PatternFormatException {
+        // Finds the first entry after every entry with this name
+        int low = 0, high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (name(getRecordByName(mid)).compareTo(name) <= 0) low = mid + 1;
+            else high = mid;
+        }
+        if (low == 0) throw new PatternNotFound("Pattern not found");
+        int record = getRecordByName(low - 1);
+        if (!name(record).equals(name)) throw new PatternNotFound("Pattern not found");
+        return getPattern(record);
+    }
+
+    /**
+     * Gets the patterns by an author, sorted by name, by binary search of
+     * the author index.
+     * @param author   Author
+     * @return   List of patterns by that author
+     * @throws PatternNotFound   If no patterns by that author exist
+     * @throws PatternFormatException   If a pattern's rule is malformed
+     */
+    public List<Pattern> getPatternsByAuthor(String author) throws PatternNotFound, PatternFormatException {
+        // Finds the first entry with this author
+        int low = 0, high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (author(getRecordByAuthor(mid)).compareTo(author) < 0) low = mid + 1;
+            else high = mid;
+        }
+        List<Pattern> patterns = new ArrayList<>();
+        for (int i = low; i < mCount; i++) {
+            int record = getRecordByAuthor(i);
+            if (!author(record).equals(author)) break;
+            patterns.add(getPattern(record));
+        }
+        if (patterns.isEmpty()) throw new PatternNotFound("Pattern Not Found");
+        return patterns;
+    }
+
+    /**
+     * Writes patterns to a catalogue file, in the order given.
+     * @param patterns   Patterns
+     * @param filename   Path to file
+     * @throws IOException   If the file cannot be written
+     */
+    public static void write(List<Pattern> patterns, String filename) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename))) {
+            write(patterns, out);
+        }
+    }
+
+    /**
+     * Writes patterns as a catalogue to a stream, in the order given.
+     * @param patterns   Patterns
+     * @param stream     Stream to write to
+     * @throws IOException   If the stream cannot be written
+     */
+    public static void write(List<Pattern> patterns, OutputStream stream) throws IOException {
+        int count = patterns.size();
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] records = new int[count * RECORD_INTS];
+        ByteArrayOutputStream cells = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            Pattern p = patterns.get(i);
+            int r = i * RECORD_INTS;
+            records[r] = intern(p.getName(), stringIds, strings);
+            records[r + 1] = intern(p.getAuthor(), stringIds, strings);
+            records[r + 2] = p.getWidth();
+            records[r + 3] = p.getHeight();
+            records[r + 4] = p.getStartCol();
+            records[r + 5] = p.getStartRow();
+            records[r + 6] = p.getRule().equals(Rule.CONWAY) ? -1 : intern(p.getRule().toString(), stringIds, strings);
+            // Made absolute once the size of everything before it is known
+            records[r + 7] = cells.size();
+            writeCells(p.getCells(), cells);
+        }
+
+        Integer[] byName = new Integer[count];
+        for (int i = 0; i < count; i++) byName[i] = i;
+        Integer[] byAuthor = byName.clone();
+        // Sorts are stable, so equal keys stay in record order
+        Arrays.sort(byName, Comparator.comparing(i -> patterns.get(i).getName()));
+        Arrays.sort(byAuthor, Comparator.comparing((Integer i) -> patterns.get(i).getAuthor())
+                .thenComparing(i -> patterns.get(i).getName()));
+
+        byte[][] encoded = new byte[strings.size()][];
+        long stringBytes = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            stringBytes += encoded[i].length;
+        }
+        long nameIndex = HEADER_SIZE + (long) count * RECORD_SIZE;
+        long authorIndex = nameIndex + 4L * count;
+        long stringTable = authorIndex + 4L * count;
+        long cellData = stringTable + 4L * (strings.size() + 1) + stringBytes;
+        if (cellData + cells.size() > Integer.MAX_VALUE)
+            throw new IOException("Too many patterns for one catalogue.");
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        out.writeInt(strings.size());
+        out.writeInt((int) nameIndex);
+        out.writeInt((int) authorIndex);
+        out.writeInt((int) stringTable);
+        out.writeInt((int) cellData);
+        for (int i = 0; i < records.length; i++)
+            out.writeInt((i % RECORD_INTS == 7) ? (int) cellData + records[i] : records[i]);
+        for (int i : byName) out.writeInt(i);
+        for (int i : byAuthor) out.writeInt(i);
+        // String offsets are relative to the end of the offset table
+        int offset = 0;
+        for (byte[] s : encoded) {
+            out.writeInt(offset);
+            offset += s.length;
+        }
+        out.writeInt(offset);
+        for (byte[] s : encoded) out.write(s);
+        cells.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Helper method - gets the id of a string in the string table, adding it
+     * if it is new.
+     * @param s         String
+     * @param ids       Ids of strings added so far
+     * @param strings   Strings added so far, in id order
+     * @return   Id
+     */
+    private static int intern(String s, Map<String, Integer> ids, List<String> strings) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    /**
+     * Helper method - writes a cell definition to the cell data.
+     * @param cells   Cell definition, e.g. "010 001 111"
+     * @param out     Cell data
+     */
+    private static void writeCells(String cells, ByteArrayOutputStream out) {
+        if (!cells.matches("[01 ]*")) {
+            // Kept as text, so that initialising it fails as it would have
+            byte[] text = cells.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(0, out);
+            writeVarInt(text.length, out);
+            out.write(text, 0, text.length);
+            return;
+        }
+        String[] rows = cells.split(" ", -1);
+        writeVarInt(rows.length, out);
+        for (String row : rows)
+            writeVarInt(row.length(), out);
+        int bits = 0, n = 0;
+        for (String row : rows) {
+            for (int i = 0; i < row.length(); i++) {
+                if (row.charAt(i) == '1') bits |= 1 << n;
+                if (++n == 8) {
+                    out.write(bits);
+                    bits = 0;
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0) out.write(bits);
+    }
+
+    /**
+     * Helper method - writes a non-negative int in as few bytes as possible,
+     * 7 bits at a time.
+     * @param value   Value
+     * @param out     Stream to write to
+     */
+    private static void writeVarInt(int value, ByteArrayOutputStream out) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Decodes the bit-packed cells at an offset in the cell data into a
+     * bitmap, row i and cell j being bit j % 64 of word j / 64.
+     * @param offset   Offset of the cells
+     * @return   Bitmap, or null if the cells are kept as text
+     */
+    long[][] bitmap(int offset) {
+        int[] position = {offset};
+        int rows = readVarInt(position);
+        if (rows == 0) return null;
+        int[] lengths = new int[rows];
+        int width = 0;
+        for (int i = 0; i < rows; i++) {
+            lengths[i] = readVarInt(position);
+            width = Math.max(width, lengths[i]);
+        }
+        long[][] bitmap = new long[rows][(width + 63) >>> 6];
+        int bit = 0;
+        int byteIndex = position[0];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < lengths[i]; j++, bit++) {
+                if (((mBuffer.get(byteIndex + (bit >>> 3)) >>> (bit & 7)) & 1) != 0)
+                    bitmap[i][j >>> 6] |= 1L << j;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes the cell definition at an offset in the cell data.
+     * @param offset   Offset of the cells
+     * @return   Cell definition
+     */
+    String cells(int offset) {
+        int[] position = {offset};
+        int rows = readVarInt(position);
+        if (rows == 0) {
+            int length = readVarInt(position);
+            return decode(position[0], length);
+        }
+        int[] lengths = new int[rows];
+        int total = rows - 1;
+        for (int i = 0; i < rows; i++) {
+            lengths[i] = readVarInt(position);
+            total += lengths[i];
+        }
+        StringBuilder cells = new StringBuilder(total);
+        int bit = 0;
+        int byteIndex = position[0];
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) cells.append(' ');
+            for (int j = 0; j < lengths[i]; j++, bit++)
+                cells.append(((mBuffer.get(byteIndex + (bit >>> 3)) >>> (bit & 7)) & 1) != 0 ? '1' : '0');
+        }
+        return cells.toString();
+    }
+
+    /**
+     * Helper method - reads a variable-length int.
+     * @param position   Offset to read from, advanced past the int
+     * @return   Value
+     */
+    private int readVarInt(int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = mBuffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Gets the name of the pattern in a record, without decoding the rest
+     * of the pattern.
+     * @param record   Record number
+     * @return   Name
+     */
+    String name(int record) {
+        return string(mBuffer.getInt(HEADER_SIZE + record * RECORD_SIZE));
+    }
+
+    /**
+     * Gets the author of the pattern in a record, without decoding the rest
+     * of the pattern.
+     * @param record   Record number
+     * @return   Author
+     */
+    String author(int record) {
+        return string(mBuffer.getInt(HEADER_SIZE + record * RECORD_SIZE + 4));
+    }
+
+    /**
+     * Gets the number of cells in the bounding box of the pattern in a
+     * record, without decoding the pattern.
+     * @param record   Record number
+     * @return   Width times height
+     */
+    long area(int record) {
+        int offset = HEADER_SIZE + record * RECORD_SIZE;
+        return (long) mBuffer.getInt(offset + 8) * mBuffer.getInt(offset + 12);
+    }
+
+    /**
+     * Helper method - gets a string from the string table, decoding it the
+     * first time.
+     * @param id   String id
+     * @return   String
+     */
+    private String string(int id) {
+        String s = mStrings[id];
+        if (s == null) {
+            int start = mBuffer.getInt(mStringTable + 4 * id);
+            int end = mBuffer.getInt(mStringTable + 4 * (id + 1));
+            s = decode(mStringTable + 4 * (mStringCount + 1) + start, end - start);
+            mStrings[id] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Helper method - decodes UTF-8 text from the buffer.
+     * @param offset   Offset of the first byte
+     * @param length   Number of bytes
+     * @return   Text
+     */
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        mBuffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,20 +1,79 @@
 package uk.ac.cam.cjo41.gameoflife;
 
 import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
 
 /**
- * Gets patterns from a text file source (either locally or from a URL) and
- * stores them. Provides methods to get these patterns, e.g. by name, author etc.
+ * Gets patterns from a text file source (either locally or from an http or
+ * https URL, through a PatternCache) and stores them. Provides methods to get these patterns, e.g. by name, author etc.
+ * Local files are memory-mapped and parsed in place, and each pattern's
+ * cells are only decoded when it is used. Local files may also be binary
+ * PatternCatalogues, which need no parsing at all. Large sources can be parsed on
+ * several threads, with the same result as parsing them on one. Sorted
+ * views and indexes are built once, after loading, and the lists returned
+ * are shared and cannot be modified. A store loaded from a catalogue uses
+ * the catalogue's own name and author indexes instead, and only decodes the
+ * patterns which are asked for.
  */
 public class PatternStore {
 
-    private List<Pattern> mPatterns = new LinkedList<>();
+    // Largest part of a file mapped at once
+    private static final int MAX_MAPPING = 1 << 30;
+    // Smallest part of a source worth parsing on its own thread
+    private static final int MIN_CHUNK = 1 << 20;
+
+    /**
+     * Patterns parsed from one chunk of a source, with the messages about its
+     * malformed lines, in the order of its lines.
+     */
+    private static class Chunk {
+        private final List<Pattern> mPatterns = new ArrayList<>();
+        private final List<String> mErrors = new ArrayList<>();
+    }
+
+    private final int mThreads;
+    private final PatternCache mCache;
+
+    private List<Pattern> mPatterns = new ArrayList<>();
     private Map<String, List<Pattern>> mMapAuths = new HashMap<>();
     private Map<String, Pattern> mMapName = new HashMap<>();
+    // Set if loaded from a catalogue, whose indexes then back the lookups
+    private PatternCatalogue mCatalogue;
+
+    // Views built by buildViews() once loading is finished. For a catalogue,
+    // the lists of names and authors and the area index are only built the
+    // first time they are needed
+    private List<Pattern> mNameSorted;
+    private List<Pattern> mAuthorSorted;
+    private volatile List<String> mAuthors;
+    private volatile List<String> mNames;
+    // Record of the pattern each name in mNames refers to, for a catalogue
+    private int[] mNameRecords;
+    // Patterns in mMapName by increasing area (then name), and their areas
+    private volatile List<Pattern> mAreaSorted;
+    private long[] mAreas;
+    // The same patterns by name, described as "name height width", with
+    // their areas. They form a tree which is in name order from left to
+    // right and has no pattern larger than those below it, so the patterns
+    // within an area can be listed in name order without sorting
+    private String[] mDescriptions;
+    private long[] mNameAreas;
+    private int[] mLeft;
+    private int[] mRight;
+    private int[] mParent;
+    private int mRoot;
     
     /**
      * Constructor - takes path to text file containing patterns.
@@ -22,8 +81,73 @@ public class PatternStore {
      * @throws IOException
      */
     public PatternStore(String source) throws IOException {
-        if (source.startsWith("http://")) loadFromURL(source);
+        this(source, 1);
+    }
+
+    /**
+     * Constructor - takes path to text file containing patterns and the
+     * number of threads to parse it with. Patterns, indexes and messages
+     * about malformed lines come out the same as when parsing on one thread -
+     * in particular, of patterns with the same name, the last one wins.
+     * @param source    Path to text file
+     * @param threads   Number of threads to parse with
+     * @throws IOException
+     */
+    public PatternStore(String source, int threads) throws IOException {
+        this(source, threads, new PatternCache());
+    }
+
+    /**
+     * Constructor - takes path to text file containing patterns, the number
+     * of threads to parse it with and the cache to fetch remote files
+     * through.
+     * @param source    Path to text file, or http or https URL
+     * @param threads   Number of threads to parse with
+     * @param cache     Cache for remote files
+     * @throws IOException
+     */
+    public PatternStore(String source, int threads, PatternCache cache) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Threads must be at least 1 (" + threads + " given).");
+        mThreads = threads;
+        mCache = cache;
+        if (source.startsWith("http://") || source.startsWith("https://")) loadFromURL(source);
         else loadFromDisk(source);
+        buildViews();
+    }
+
+    /**
+     * Loads a store on a background thread, so that the caller (e.g. the GUI
+     * starting up) is not blocked by the network or by parsing.
+     * @param source   Path to text file, or http or https URL
+     * @return   Future which completes with the store, or exceptionally
+     *           with the IOException which stopped it loading
+     */
+    public static CompletableFuture<PatternStore> loadAsync(String source) {
+        return loadAsync(source, Runtime.getRuntime().availableProcessors(), new PatternCache());
+    }
+
+    /**
+     * Loads a store on a background thread.
+     * @param source    Path to text file, or http or https URL
+     * @param threads   Number of threads to parse with
+     * @param cache     Cache for remote files
+     * @return   Future which completes with the store
+     */
+    public static CompletableFuture<PatternStore> loadAsync(String source, int threads, PatternCache cache) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return new PatternStore(source, threads, cache);
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, task -> {
+            // Daemon, so a slow download does not keep the program running
+            Thread loader = new Thread(task, "PatternStore loader");
+            loader.setDaemon(true);
+            loader.start();
+        });
     }
     
     /**
@@ -33,7 +157,10 @@ public class PatternStore {
      * @throws IOException
      */
     public PatternStore(Reader source) throws IOException {
+        mThreads = 1;
+        mCache = null;
         load(source);
+        buildViews();
     }
     
     /**
@@ -47,20 +174,7 @@ public class PatternStore {
         while (line != null) {
             try {
                 // Initialises pattern from line in source file
-                Pattern p = new Pattern(line);
-                mPatterns.add(p);
-                mMapName.put(p.getName(), p);
-                // If no other patterns by same author already in list
-                if (mMapAuths.get(p.getAuthor()) == null) {
-                    List<Pattern> listOfAuthorsPatterns = new ArrayList<>();
-                    listOfAuthorsPatterns.add(p);
-                    mMapAuths.put(p.getAuthor(), listOfAuthorsPatterns);
-                }
-                else {
-                    // Adds to pre-existing list
-                    ArrayList<Pattern> listOfAuthorsPatterns = (ArrayList) mMapAuths.get(p.getAuthor());
-                    listOfAuthorsPatterns.add(p);
-                }
+                add(new Pattern(line));
             }
             catch (PatternFormatException e) {
                 System.out.println(e.getMessage());
@@ -69,37 +183,367 @@ public class PatternStore {
             line = b.readLine();
         }
     }
+
+    /**
+     * Reads patterns from the lines of part of a buffer, in place - split
+     * into chunks on line boundaries and parsed in parallel if the store has
+     * several threads.
+     * @param buffer   Buffer holding lines of text
+     * @param start    Index of the first byte of the first line
+     * @param end      Index after the last byte of the last line
+     * @throws IOException   If interrupted while parsing
+     */
+    private void load(ByteBuffer buffer, int start, int end) throws IOException {
+        int chunks = Math.min(mThreads * 4, (end - start) / MIN_CHUNK);
+        if (mThreads == 1 || chunks < 2) {
+            add(parse(buffer, start, end));
+            return;
+        }
+
+        // Chunks start just after a line ending, at roughly even intervals
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = start;
+        bounds[chunks] = end;
+        for (int i = 1; i < chunks; i++) {
+            int split = Math.max(bounds[i - 1], start + (int) ((long) (end - start) * i / chunks));
+            while (split < end && buffer.get(split - 1) != '\n') split++;
+            bounds[i] = split;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try {
+            List<Future<Chunk>> futures = new ArrayList<>();
+            for (int i = 0; i < chunks; i++) {
+                int from = bounds[i], to = bounds[i + 1];
+                futures.add(executor.submit(() -> parse(buffer, from, to)));
+            }
+            // Indexes in file order as chunks complete, so later lines win
+            // just as they do when parsing on one thread
+            for (Future<Chunk> f : futures)
+                add(f.get());
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while loading patterns.");
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Helper method - parses the lines of part of a buffer, in place. Lines
+     * end with "\n", "\r" or "\r\n" as for BufferedReader, and the last may
+     * have no line ending. Touches nothing but the chunk it returns, so can
+     * run on any thread.
+     * @param buffer   Buffer holding lines of text
+     * @param start    Index of the first byte of the first line
+     * @param end      Index after the last byte of the last line
+     * @return   Parsed chunk
+     */
+    private static Chunk parse(ByteBuffer buffer, int start, int end) {
+        Chunk chunk = new Chunk();
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            byte b = 0;
+            while (lineEnd < end && (b = buffer.get(lineEnd)) != '\n' && b != '\r') lineEnd++;
+            int next = lineEnd + 1;
+            if (b == '\r' && next < end && buffer.get(next) == '\n') next++;
+            try {
+                chunk.mPatterns.add(new Pattern(buffer, lineStart, lineEnd));
+            }
+            catch (PatternFormatException e) {
+                chunk.mErrors.add(e.getMessage());
+            }
+            lineStart = next;
+        }
+        return chunk;
+    }
+
+    /**
+     * Helper method - adds the patterns of a parsed chunk to the store.
+     * @param chunk   Parsed chunk
+     */
+    private void add(Chunk chunk) {
+        for (String error : chunk.mErrors)
+            System.out.println(error);
+        for (Pattern p : chunk.mPatterns)
+            add(p);
+    }
+
+    /**
+     * Uses a binary catalogue as the store's patterns. Nothing is decoded
+     * until it is asked for.
+     * @param catalogue   Catalogue
+     */
+    private void load(PatternCatalogue catalogue) {
+        mCatalogue = catalogue;
+    }
+
+    /**
+     * Writes every pattern in the store to a binary catalogue file, which
+     * can be loaded again by passing its path to the constructor.
+     * @param filename   Path to file
+     * @throws IOException   If the file cannot be written
+     */
+    public void writeCatalogue(String filename) throws IOException {
+        List<Pattern> patterns = mPatterns;
+        if (mCatalogue != null)
+            patterns = catalogueView(i -> i);
+        PatternCatalogue.write(patterns, filename);
+    }
+
+    /**
+     * Helper method - adds a pattern to the store and its indexes. A later
+     * pattern with the same name replaces an earlier one in the name index.
+     * @param p   Pattern
+     */
+    private void add(Pattern p) {
+        mPatterns.add(p);
+        mMapName.put(p.getName(), p);
+        // Creates the author's list if this is their first pattern
+        mMapAuths.computeIfAbsent(p.getAuthor(), a -> new ArrayList<>()).add(p);
+    }
     
     /**
-     * Called if path starts with "http://".
+     * Called if path starts with "http://" or "https://". The file is
+     * fetched into the cache (unless a fresh copy is already there) and
+     * loaded from disk.
      * @param url   URL path to file
-     * @throws IOException   InputStreamReader throws exception
+     * @throws IOException   If the file cannot be fetched
      */
     private void loadFromURL(String url) throws IOException {
-        URL destination = new URL(url);
-        URLConnection conn = destination.openConnection();
-        Reader r = new InputStreamReader(conn.getInputStream());
-        load(r);
+        loadFromDisk(mCache.fetch(url).getPath());
     }
     
     /**
-     * Called if path doesn't start with "http://".
+     * Called for local files. Maps the file into
+     * memory (in windows of up to 1GB, split on line boundaries) and parses
+     * it in place.
      * @param filename   Path to file
-     * @throws IOException   FileReader throws exception
+     * @throws IOException   If the file cannot be read
      */
     private void loadFromDisk(String filename) throws IOException {
-        Reader r = new FileReader(filename);
-        load(r);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = 0;
+            while (offset < size) {
+                int length = (int) Math.min(size - offset, MAX_MAPPING);
+                // Mapping stays valid after the channel is closed
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                // Anything without a valid catalogue header, even if it
+                // starts with the magic number, is parsed as text
+                if (offset == 0 && PatternCatalogue.isCatalogue(buffer)) {
+                    if (length < size)
+                        throw new IOException("Pattern catalogue " + filename + " is too large to map.");
+                    load(new PatternCatalogue(buffer));
+                    return;
+                }
+                int end = length;
+                if (offset + length < size) {
+                    // Window must end on a line boundary unless it is the last
+                    while (end > 0 && buffer.get(end - 1) != '\n') end--;
+                    if (end == 0)
+                        throw new IOException("Line longer than " + MAX_MAPPING + " bytes in " + filename + ".");
+                }
+                load(buffer, 0, end);
+                offset += end;
+            }
+        }
     }
     
+    /**
+     * Helper method - sorts the patterns into the views returned by the
+     * getters. Sorts are stable, so patterns with the same name stay in file
+     * order. A catalogue is already sorted, so its views just read its
+     * indexes.
+     */
+    private void buildViews() {
+        if (mCatalogue != null) {
+            PatternCatalogue catalogue = mCatalogue;
+            mNameSorted = catalogueView(catalogue::getRecordByName);
+            mAuthorSorted = catalogueView(catalogue::getRecordByAuthor);
+            return;
+        }
+
+        List<Pattern> nameSorted = new ArrayList<>(mPatterns);
+        Collections.sort(nameSorted);
+        mNameSorted = Collections.unmodifiableList(nameSorted);
+
+        List<String> authors = new ArrayList<>(mMapAuths.keySet());
+        Collections.sort(authors);
+        mAuthors = Collections.unmodifiableList(authors);
+        List<Pattern> authorSorted = new ArrayList<>(mPatterns.size());
+        for (String author : authors) {
+            List<Pattern> l = mMapAuths.get(author);
+            Collections.sort(l);
+            mMapAuths.put(author, Collections.unmodifiableList(l));
+            authorSorted.addAll(l);
+        }
+        mAuthorSorted = Collections.unmodifiableList(authorSorted);
+
+        List<String> names = new ArrayList<>(mMapName.keySet());
+        Collections.sort(names);
+        mNames = Collections.unmodifiableList(names);
+
+        List<Pattern> byName = new ArrayList<>(names.size());
+        for (String name : names)
+            byName.add(mMapName.get(name));
+        buildAreaTree(byName);
+
+        List<Pattern> areaSorted = new ArrayList<>(mMapName.values());
+        areaSorted.sort(Comparator.comparingLong(PatternStore::area).thenComparing(Pattern::getName));
+        mAreas = new long[areaSorted.size()];
+        for (int i = 0; i < mAreas.length; i++)
+            mAreas[i] = area(areaSorted.get(i));
+        mAreaSorted = Collections.unmodifiableList(areaSorted);
+    }
+
+    /**
+     * Helper method - lists the distinct names and authors of a catalogue,
+     * from its indexes.
+     */
+    private synchronized void buildCatalogueNames() {
+        if (mNames != null) return;
+        PatternCatalogue catalogue = mCatalogue;
+        int count = catalogue.size();
+        List<String> names = new ArrayList<>();
+        int[] records = new int[count];
+        for (int i = 0; i < count; i++) {
+            int record = catalogue.getRecordByName(i);
+            String name = catalogue.name(record);
+            // Of patterns with the same name, the last one wins
+            if (i + 1 < count && catalogue.name(catalogue.getRecordByName(i + 1)).equals(name)) continue;
+            records[names.size()] = record;
+            names.add(name);
+        }
+        List<String> authors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String author = catalogue.author(catalogue.getRecordByAuthor(i));
+            if (authors.isEmpty() || !authors.get(authors.size() - 1).equals(author))
+                authors.add(author);
+        }
+        mNameRecords = Arrays.copyOf(records, names.size());
+        mAuthors = Collections.unmodifiableList(authors);
+        mNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Helper method - builds the area index of a catalogue, from the sizes in
+     * its records.
+     */
+    private synchronized void buildCatalogueAreas() {
+        if (mAreaSorted != null) return;
+        if (mNames == null) buildCatalogueNames();
+        PatternCatalogue catalogue = mCatalogue;
+        Integer[] records = new Integer[mNameRecords.length];
+        for (int i = 0; i < records.length; i++) records[i] = mNameRecords[i];
+        // Already in name order, so a stable sort by area breaks ties by name
+        Arrays.sort(records, Comparator.comparingLong(catalogue::area));
+        buildAreaTree(catalogueView(i -> mNameRecords[i], mNameRecords.length));
+
+        mAreas = new long[records.length];
+        int[] areaRecords = new int[records.length];
+        for (int i = 0; i < records.length; i++) {
+            areaRecords[i] = records[i];
+            mAreas[i] = catalogue.area(records[i]);
+        }
+        mAreaSorted = catalogueView(i -> areaRecords[i], areaRecords.length);
+    }
+
+    /**
+     * Helper method - builds the tree of patterns by name and area which
+     * getNumPatternsRepresentableBy() walks. Each pattern's parent is the
+     * nearer of the closest smaller patterns on either side of it in name
+     * order, found with a stack in one pass.
+     * @param byName   Patterns with distinct names, in name order
+     */
+    private void buildAreaTree(List<Pattern> byName) {
+        int n = byName.size();
+        mDescriptions = new String[n];
+        mNameAreas = new long[n];
+        mLeft = new int[n];
+        mRight = new int[n];
+        mParent = new int[n];
+        Arrays.fill(mLeft, -1);
+        Arrays.fill(mRight, -1);
+        Arrays.fill(mParent, -1);
+        int[] stack = new int[n];
+        int top = 0;
+        for (int i = 0; i < n; i++) {
+            Pattern p = byName.get(i);
+            mDescriptions[i] = p.getName() + " " + p.getHeight() + " " + p.getWidth();
+            mNameAreas[i] = area(p);
+            int last = -1;
+            while (top > 0 && mNameAreas[stack[top - 1]] > mNameAreas[i])
+                last = stack[--top];
+            mLeft[i] = last;
+            if (last >= 0) mParent[last] = i;
+            if (top > 0) {
+                mRight[stack[top - 1]] = i;
+                mParent[i] = stack[top - 1];
+            }
+            stack[top++] = i;
+        }
+        mRoot = (top > 0) ? stack[0] : -1;
+    }
+
+    /**
+     * Helper method - gets a list of the catalogue's patterns, decoding each
+     * when it is first read.
+     * @param record   Gives the record number at each position
+     * @return   List of every pattern
+     */
+    private List<Pattern> catalogueView(IntUnaryOperator record) {
+        return catalogueView(record, mCatalogue.size());
+    }
+
+    /**
+     * Helper method - gets a list of some of the catalogue's patterns,
+     * decoding each when it is first read.
+     * @param record   Gives the record number at each position
+     * @param size     Length of list
+     * @return   List of patterns
+     */
+    private List<Pattern> catalogueView(IntUnaryOperator record, int size) {
+        PatternCatalogue catalogue = mCatalogue;
+        return new AbstractList<Pattern>() {
+            @Override
+            public Pattern get(int i) {
+                Objects.checkIndex(i, size);
+                try {
+                    return catalogue.getPattern(record.applyAsInt(i));
+                }
+                catch (PatternFormatException e) {
+                    throw new IllegalStateException("Corrupt pattern catalogue: " + e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Helper method - gets the number of cells in a pattern's bounding box.
+     * @param p   Pattern
+     * @return   Width times height
+     */
+    private static long area(Pattern p) {
+        return (long) p.getWidth() * p.getHeight();
+    }
+
     /**
      * Gets a list of Patterns, sorted by name
      * @return   Sorted list of Patterns
      */
     public List<Pattern> getPatternsNameSorted() {
-        List<Pattern> patternsToReturn = new ArrayList<>(mPatterns);
-        Collections.sort(patternsToReturn);
-        return patternsToReturn;
+        return mNameSorted;
     }
     
     /**
@@ -107,15 +551,7 @@ public class PatternStore {
      * @return   Sorted list of Patterns
      */
     public List<Pattern> getPatternsAuthorSorted() {
-        List<Pattern> patternsToReturn = new LinkedList<>();
-        // Sorts patterns by author by using TreeMap
-        TreeMap<String, List<Pattern>> authorsSorted = new TreeMap<>(mMapAuths);
-        List<List<Pattern>> patternsSortedByAuthor = new ArrayList<>(authorsSorted.values());
-        for (List<Pattern> l : patternsSortedByAuthor) {
-            Collections.sort(l);
-            patternsToReturn.addAll(l);
-        }
-        return patternsToReturn;
+        return mAuthorSorted;
     }
     
     /**
@@ -125,11 +561,16 @@ public class PatternStore {
      * @throws PatternNotFound   If no patterns by that author exist
      */
     public List<Pattern> getPatternsByAuthor(String author) throws PatternNotFound {
-        if (mMapAuths.get(author) != null) {
-            List<Pattern> patternsToReturn = new ArrayList<>(mMapAuths.get(author));
-            Collections.sort(patternsToReturn);
-            return patternsToReturn;
+        if (mCatalogue != null) {
+            try {
+                return Collections.unmodifiableList(mCatalogue.getPatternsByAuthor(author));
+            }
+            catch (PatternFormatException e) {
+                throw new IllegalStateException("Corrupt pattern catalogue: " + e.getMessage(), e);
+            }
         }
+        if (mMapAuths.get(author) != null)
+            return mMapAuths.get(author);
         else throw new PatternNotFound("Pattern Not Found");
     }
     
@@ -140,6 +581,14 @@ public class PatternStore {
      * @throws PatternNotFound   If no pattern by that name exists
      */
     public Pattern getPatternByName(String name) throws PatternNotFound {
+        if (mCatalogue != null) {
+            try {
+                return mCatalogue.getPatternByName(name);
+            }
+            catch (PatternFormatException e) {
+                throw new IllegalStateException("Corrupt pattern catalogue: " + e.getMessage(), e);
+            }
+        }
         if (mMapName.get(name) != null)
             return mMapName.get(name);
         else
@@ -151,9 +600,8 @@ public class PatternStore {
      * @return   List of authors
      */
     public List<String> getPatternAuthors() {
-        List<String> authorsToReturn = new ArrayList<>(mMapAuths.keySet());
-        Collections.sort(authorsToReturn);
-        return authorsToReturn;
+        if (mAuthors == null) buildCatalogueNames();
+        return mAuthors;
     }
     
     /**
@@ -161,22 +609,57 @@ public class PatternStore {
      * @return   Sorted list of pattern names
      */
     public List<String> getPatternNames() {
-        List<String> namesToReturn = new ArrayList<>(mMapName.keySet());
-        Collections.sort(namesToReturn);
-        return namesToReturn;
+        if (mNames == null) buildCatalogueNames();
+        return mNames;
     }
     
     /**
-     * Gets the patterns which can be represented by a given number of cells.
+     * Gets the patterns which can be represented by a given number of cells,
+     * as "name height width", sorted by name. Walks only the part of the
+     * area tree within x, so takes time in proportion to the patterns found.
      * @param x   Number of cells
      * @return   List of Patterns
      */
     public List<String> getNumPatternsRepresentableBy(int x) {
-        TreeMap<String, Pattern> patternsSorted = new TreeMap<>(mMapName);
-        return patternsSorted.values().stream()
-                .filter( p -> (p.getWidth() * p.getHeight() <= x))
-                .map( p -> { return (p.getName() + " " + p.getHeight() + " " + p.getWidth()); })
-                .collect(Collectors.toList());
+        if (mAreaSorted == null) buildCatalogueAreas();
+        List<String> found = new ArrayList<>();
+        int node = mRoot;
+        if (node < 0 || mNameAreas[node] > x) return Collections.unmodifiableList(found);
+        // In-order walk, skipping subtrees whose top is too large, since
+        // everything below it is at least as large
+        while (mLeft[node] >= 0 && mNameAreas[mLeft[node]] <= x) node = mLeft[node];
+        while (node >= 0) {
+            found.add(mDescriptions[node]);
+            if (mRight[node] >= 0 && mNameAreas[mRight[node]] <= x) {
+                node = mRight[node];
+                while (mLeft[node] >= 0 && mNameAreas[mLeft[node]] <= x) node = mLeft[node];
+            }
+            else {
+                // Climbs to the first ancestor this subtree is left of
+                while (mParent[node] >= 0 && mRight[mParent[node]] == node) node = mParent[node];
+                node = mParent[node];
+            }
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Gets the patterns which can be represented by a given number of cells,
+     * found by binary search of the area index.
+     * @param x   Number of cells
+     * @return   Patterns whose width times height is at most x, by
+     *           increasing area and then name
+     */
+    public List<Pattern> getPatternsRepresentableBy(long x) {
+        if (mAreaSorted == null) buildCatalogueAreas();
+        // Finds the first pattern with an area greater than x
+        int low = 0, high = mAreas.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mAreas[mid] <= x) low = mid + 1;
+            else high = mid;
+        }
+        return mAreaSorted.subList(0, low);
     }
     
 }
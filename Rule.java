@@ -0,0 +1,221 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+/**
+ * Represents a life-like rule - which neighbour counts cause a dead cell to
+ * be born and a live cell to survive - written in B/S notation, e.g. "B3/S23"
+ * for Conway's Game of Life or "B36/S23" for HighLife. The rule is compiled
+ * into constant masks so that it can be applied to 64 cells at once.
+ */
+public final class Rule {
+
+    /**
+     * Conway's Game of Life, B3/S23.
+     */
+    public static final Rule CONWAY = new Rule(1 << 3, (1 << 2) | (1 << 3));
+
+    private final int mBirth;
+    private final int mSurvival;
+
+    // Conway's rule is applied with a shorter expression than the general one
+    private final boolean mConway;
+
+    // The rule's table over (alive, neighbour count), compiled to words:
+    // mBornN is all ones if a dead cell with N neighbours is born, mFlipN is
+    // all ones if a live cell with N neighbours has the opposite outcome
+    private final long mBorn0, mBorn1, mBorn2, mBorn3, mBorn4, mBorn5, mBorn6, mBorn7, mBorn8;
+    private final long mFlip0, mFlip1, mFlip2, mFlip3, mFlip4, mFlip5, mFlip6, mFlip7, mFlip8;
+
+    /**
+     * Constructor - takes the birth and survival neighbour counts as masks.
+     * @param birth      Bit n set if a dead cell with n neighbours is born
+     * @param survival   Bit n set if a live cell with n neighbours survives
+     */
+    private Rule(int birth, int survival) {
+        mBirth = birth;
+        mSurvival = survival;
+        mConway = (birth == 1 << 3) && (survival == ((1 << 2) | (1 << 3)));
+        mBorn0 = word(birth, 0);
+        mBorn1 = word(birth, 1);
+        mBorn2 = word(birth, 2);
+        mBorn3 = word(birth, 3);
+        mBorn4 = word(birth, 4);
+        mBorn5 = word(birth, 5);
+        mBorn6 = word(birth, 6);
+        mBorn7 = word(birth, 7);
+        mBorn8 = word(birth, 8);
+        int flip = birth ^ survival;
+        mFlip0 = word(flip, 0);
+        mFlip1 = word(flip, 1);
+        mFlip2 = word(flip, 2);
+        mFlip3 = word(flip, 3);
+        mFlip4 = word(flip, 4);
+        mFlip5 = word(flip, 5);
+        mFlip6 = word(flip, 6);
+        mFlip7 = word(flip, 7);
+        mFlip8 = word(flip, 8);
+    }
+
+    /**
+     * Helper method - expands one bit of a mask to a whole word.
+     * @param mask   Mask
+     * @param n      Bit
+     * @return   All ones if bit n is set, otherwise zero
+     */
+    private static long word(int mask, int n) {
+        return -(long) ((mask >>> n) & 1);
+    }
+
+    /**
+     * Parses a rule written in B/S notation ("B3/S23", case-insensitive, in
+     * either order) or the older S/B notation ("23/3").
+     * @param rule   Rule string
+     * @return   Rule
+     * @throws PatternFormatException   If the string is not a life-like rule
+     */
+    public static Rule parse(String rule) throws PatternFormatException {
+        String[] parts = rule.trim().split("/", -1);
+        if (parts.length != 2)
+            throw new PatternFormatException("Invalid rule: Expected a rule such as 'B3/S23' ('" + rule + "' given).");
+        int birth = -1, survival = -1;
+        for (int i = 0; i < 2; i++) {
+            String part = parts[i];
+            char prefix = part.isEmpty() ? ' ' : Character.toUpperCase(part.charAt(0));
+            if (prefix == 'B')
+                birth = parseCounts(part.substring(1), rule);
+            else if (prefix == 'S')
+                survival = parseCounts(part.substring(1), rule);
+            else if (i == 0)
+                survival = parseCounts(part, rule);
+            else
+                birth = parseCounts(part, rule);
+        }
+        if (birth < 0 || survival < 0)
+            throw new PatternFormatException("Invalid rule: Expected a rule such as 'B3/S23' ('" + rule + "' given).");
+        return of(birth, survival);
+    }
+
+    /**
+     * Gets the rule with the given birth and survival neighbour counts.
+     * @param birth      Bit n set if a dead cell with n neighbours is born
+     * @param survival   Bit n set if a live cell with n neighbours survives
+     * @return   Rule
+     */
+    public static Rule of(int birth, int survival) {
+        birth &= 0x1FF;
+        survival &= 0x1FF;
+        if (birth == CONWAY.mBirth && survival == CONWAY.mSurvival)
+            return CONWAY;
+        return new Rule(birth, survival);
+    }
+
+    /**
+     * Helper method - parses a list of neighbour counts into a mask.
+     * @param counts   Digits 0-8
+     * @param rule     Whole rule string, for error messages
+     * @return   Mask with bit n set for each count n
+     * @throws PatternFormatException   If a character is not a digit 0-8
+     */
+    private static int parseCounts(String counts, String rule) throws PatternFormatException {
+        int mask = 0;
+        for (char ch : counts.toCharArray()) {
+            if (ch < '0' || ch > '8')
+                throw new PatternFormatException("Invalid rule: '" + ch + "' is not a neighbour count in '" + rule + "'.");
+            mask |= 1 << (ch - '0');
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the birth neighbour counts.
+     * @return   Mask with bit n set if a dead cell with n neighbours is born
+     */
+    public int getBirthMask() {
+        return mBirth;
+    }
+
+    /**
+     * Gets the survival neighbour counts.
+     * @return   Mask with bit n set if a live cell with n neighbours survives
+     */
+    public int getSurvivalMask() {
+        return mSurvival;
+    }
+
+    /**
+     * Checks whether a dead cell with no live neighbours is born, which
+     * would bring an infinite dead background to life.
+     * @return   True if 0 is a birth count
+     */
+    public boolean birthsFromNothing() {
+        return (mBirth & 1) != 0;
+    }
+
+    /**
+     * Computes the next state of a single cell.
+     * @param alive        Whether the cell is alive now
+     * @param neighbours   Number of live neighbours
+     * @return   True if the cell is alive in the next generation
+     */
+    public boolean next(boolean alive, int neighbours) {
+        return (((alive ? mSurvival : mBirth) >>> neighbours) & 1) != 0;
+    }
+
+    /**
+     * Computes the next state of 64 cells at once, from their neighbour
+     * counts given as bit-planes. The count selects an entry of the rule's
+     * table through a tree of bitwise multiplexers, so there are no branches.
+     * @param c        The cells themselves
+     * @param ones     Bit 0 of each neighbour count
+     * @param twos     Bit 1 of each neighbour count
+     * @param fours    Bit 2 of each neighbour count
+     * @param eights   Bit 3 of each neighbour count
+     * @return   Next generation of the cells
+     */
+    long apply(long c, long ones, long twos, long fours, long eights) {
+        if (mConway)
+            return twos & ~(fours | eights) & (ones | c);
+        long t0 = mBorn0 ^ (mFlip0 & c), t1 = mBorn1 ^ (mFlip1 & c);
+        long t2 = mBorn2 ^ (mFlip2 & c), t3 = mBorn3 ^ (mFlip3 & c);
+        long t4 = mBorn4 ^ (mFlip4 & c), t5 = mBorn5 ^ (mFlip5 & c);
+        long t6 = mBorn6 ^ (mFlip6 & c), t7 = mBorn7 ^ (mFlip7 & c);
+        long t8 = mBorn8 ^ (mFlip8 & c);
+        // Selects on each bit of the count in turn
+        long u0 = t0 ^ ((t0 ^ t1) & ones), u1 = t2 ^ ((t2 ^ t3) & ones);
+        long u2 = t4 ^ ((t4 ^ t5) & ones), u3 = t6 ^ ((t6 ^ t7) & ones);
+        long v0 = u0 ^ ((u0 ^ u1) & twos), v1 = u2 ^ ((u2 ^ u3) & twos);
+        long w0 = v0 ^ ((v0 ^ v1) & fours);
+        return w0 ^ ((w0 ^ t8) & eights);
+    }
+
+    /**
+     * Checks whether another rule has the same birth and survival counts.
+     * @param o   Object to compare with
+     * @return   True if equal
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Rule)) return false;
+        Rule r = (Rule) o;
+        return mBirth == r.mBirth && mSurvival == r.mSurvival;
+    }
+
+    @Override
+    public int hashCode() {
+        return mBirth * 512 + mSurvival;
+    }
+
+    /**
+     * Writes the rule in B/S notation.
+     * @return   Rule string, e.g. "B3/S23"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("B");
+        for (int n = 0; n <= 8; n++)
+            if (((mBirth >>> n) & 1) != 0) sb.append(n);
+        sb.append("/S");
+        for (int n = 0; n <= 8; n++)
+            if (((mSurvival >>> n) & 1) != 0) sb.append(n);
+        return sb.toString();
+    }
+}
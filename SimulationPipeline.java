@@ -0,0 +1,124 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Computes generations ahead of playback on a background thread. Frames are
+ * taken from a GenerationHistory, so they are recorded for moving back later
+ * and are never modified once published, and are handed over through a
+ * bounded queue. The producer blocks once the queue is full, so it runs at
+ * most a fixed number of generations ahead of whoever is consuming frames.
+ */
+public class SimulationPipeline {
+
+    /**
+     * Default number of generations computed ahead.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final GenerationHistory mHistory;
+    private final BlockingQueue<World> mFrames;
+    private final Thread mProducer;
+    private volatile boolean mStopped;
+    private volatile Throwable mError;
+
+    /**
+     * Constructor - takes the history to play from and the generation to
+     * start after, and computes the default number of generations ahead.
+     * @param history      History which generations are computed through
+     * @param generation   Generation currently shown
+     */
+    public SimulationPipeline(GenerationHistory history, int generation) {
+        this(history, generation, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor - takes the history to play from, the generation to start
+     * after and the number of generations to compute ahead.
+     * @param history      History which generations are computed through
+     * @param generation   Generation currently shown
+     * @param capacity     Maximum number of frames waiting to be taken
+     */
+    public SimulationPipeline(GenerationHistory history, int generation, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1 (" + capacity + " given).");
+        mHistory = history;
+        mFrames = new ArrayBlockingQueue<>(capacity);
+        mProducer = new Thread(() -> produce(generation), "Life simulation");
+        mProducer.setDaemon(true);
+        // Playback should not starve the Event Dispatch Thread
+        mProducer.setPriority(Thread.NORM_PRIORITY - 1);
+    }
+
+    /**
+     * Starts computing generations.
+     */
+    public void start() {
+        mProducer.start();
+    }
+
+    /**
+     * Stops computing generations. Frames already queued are discarded,
+     * but the generations stay in the history.
+     */
+    public void stop() {
+        mStopped = true;
+        mProducer.interrupt();
+        mFrames.clear();
+    }
+
+    /**
+     * Takes frames which are ready, up to a limit, without waiting. Only the
+     * last is returned, so that playback faster than the display can draw
+     * skips the frames in between.
+     * @param generations   Maximum number of generations to advance
+     * @return   Latest frame taken, or null if none were ready
+     */
+    public World advance(int generations) {
+        World frame = null;
+        for (int i = 0; i < generations; i++) {
+            World next = mFrames.poll();
+            if (next == null) break;
+            frame = next;
+        }
+        return frame;
+    }
+
+    /**
+     * Gets the number of frames computed but not yet taken.
+     * @return   Number of frames queued
+     */
+    public int getQueuedFrames() {
+        return mFrames.size();
+    }
+
+    /**
+     * Gets the error which stopped the producer, if any.
+     * @return   Error thrown while computing a generation, or null
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    /**
+     * Helper method - body of the producer thread. Steps through the history
+     * one generation at a time, waiting whenever the queue is full.
+     * @param generation   Generation to start after
+     */
+    private void produce(int generation) {
+        try {
+            while (!mStopped) {
+                generation++;
+                World frame = mHistory.get(generation);
+                mFrames.put(frame);
+            }
+        }
+        catch (InterruptedException e) {
+            // Stopped while waiting for space
+        }
+        catch (RuntimeException | Error e) {
+            mError = e;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents an unbounded world as a sparse map of 64x64 chunks, keyed by
+ * their packed chunk coordinates. Only chunks containing live cells are
+ * stored, so memory and stepping cost follow the live population rather than
+ * the size of the pattern. Each chunk is 64 longs, one per row, with the same
+ * bit layout as World.
+ */
+public class SparseWorld {
+
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final long[] EMPTY_CHUNK = new long[CHUNK_SIZE];
+
+    private Map<Long, long[]> mChunks = new HashMap<>();
+    private int mGeneration;
+
+    // Reused by every generation: the chunks to compute, the map the next
+    // generation is built in, and chunks freed by the previous generation
+    private final Set<Long> mCandidates = new HashSet<>();
+    private Map<Long, long[]> mNextChunks = new HashMap<>();
+    private final ArrayDeque<long[]> mFreeChunks = new ArrayDeque<>();
+    private final Rule mRule;
+
+    // Scratch columns (west, centre, east) of a chunk's neighbourhood,
+    // padded with the row above and below
+    private final long[] mWestColumn = new long[CHUNK_SIZE + 2];
+    private final long[] mCentreColumn = new long[CHUNK_SIZE + 2];
+    private final long[] mEastColumn = new long[CHUNK_SIZE + 2];
+
+    /**
+     * Constructor - creates an empty world, running Conway's rules.
+     */
+    public SparseWorld() {
+        mRule = Rule.CONWAY;
+    }
+
+    /**
+     * Constructor - creates an empty world running the given rule.
+     * @param rule   Rule - must not have B0, as an unbounded world cannot
+     *               bring its infinite background to life
+     */
+    public SparseWorld(Rule rule) {
+        if (rule.birthsFromNothing())
+            throw new IllegalArgumentException("Rule " + rule + " cannot be run on an unbounded world.");
+        mRule = rule;
+    }
+
+    /**
+     * Constructor - takes a Pattern object and creates generation 0 of it,
+     * with the pattern's top-left corner at (0, 0).
+     * @param p   Pattern object
+     * @throws PatternFormatException
+     */
+    public SparseWorld(Pattern p) throws PatternFormatException {
+        this(p.getRule());
+        // Reads the pattern's cells through a world of the pattern's size
+        World world = new World(p);
+        for (int row = 0; row < world.getHeight(); row++)
+            for (int col = 0; col < world.getWidth(); col++)
+                if (world.getCell(col, row))
+                    setCell(col, row, true);
+    }
+
+    /**
+     * Gets the generation number which this world represents.
+     * @return   Current generation number
+     */
+    public int getGenerationCount() {
+        return mGeneration;
+    }
+
+    /**
+     * Gets the rule which this world is run with.
+     * @return   Rule
+     */
+    public Rule getRule() {
+        return mRule;
+    }
+
+    /**
+     * Gets the number of chunks holding live cells.
+     * @return   Number of chunks
+     */
+    public int getChunkCount() {
+        return mChunks.size();
+    }
+
+    /**
+     * Gets the number of live cells.
+     * @return   Population
+     */
+    public long getPopulation() {
+        long population = 0;
+        for (long[] chunk : mChunks.values())
+            for (long word : chunk)
+                population += Long.bitCount(word);
+        return population;
+    }
+
+    /**
+     * Gets value of cell at (row, col)
+     * @param col
+     * @param row
+     * @return   True if alive
+     */
+    public boolean getCell(int col, int row) {
+        long[] chunk = mChunks.get(key(col >> CHUNK_BITS, row >> CHUNK_BITS));
+        if (chunk == null) return false;
+        return (chunk[row & (CHUNK_SIZE - 1)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Sets cell at (row, col) to value
+     * @param col
+     * @param row
+     * @param value
+     */
+    public void setCell(int col, int row, boolean value) {
+        long key = key(col >> CHUNK_BITS, row >> CHUNK_BITS);
+        long[] chunk = mChunks.get(key);
+        if (chunk == null) {
+            if (!value) return;
+            chunk = newChunk();
+            mChunks.put(key, chunk);
+        }
+        int r = row & (CHUNK_SIZE - 1);
+        if (value)
+            chunk[r] |= 1L << col;
+        else
+            chunk[r] &= ~(1L << col);
+        // Chunks are only kept while they hold live cells
+        if (!value && isEmpty(chunk)) mChunks.remove(key);
+    }
+
+    /**
+     * Gets the smallest rectangle containing every live cell, e.g. to choose
+     * what to render.
+     * @return   Bounding box, or null if there are no live cells
+     */
+    public Rectangle getBoundingBox() {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (Map.Entry<Long, long[]> e : mChunks.entrySet()) {
+            long[] chunk = e.getValue();
+            int left = chunkX(e.getKey()) << CHUNK_BITS;
+            int top = chunkY(e.getKey()) << CHUNK_BITS;
+            long columns = 0;
+            for (int r = 0; r < CHUNK_SIZE; r++) {
+                if (chunk[r] == 0) continue;
+                columns |= chunk[r];
+                minY = Math.min(minY, top + r);
+                maxY = Math.max(maxY, top + r);
+            }
+            minX = Math.min(minX, left + Long.numberOfTrailingZeros(columns));
+            maxX = Math.max(maxX, left + 63 - Long.numberOfLeadingZeros(columns));
+        }
+        if (mChunks.isEmpty()) return null;
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Copies a window of this world into a new World, e.g. for display.
+     * @param left     Column of the window's left edge
+     * @param top      Row of the window's top edge
+     * @param width    Width of window
+     * @param height   Height of window
+     * @return   World holding the window's cells
+     */
+    public World toWorld(int left, int top, int width, int height) {
+        World world = new World(width, height);
+        for (Map.Entry<Long, long[]> e : mChunks.entrySet()) {
+            long[] chunk = e.getValue();
+            int chunkLeft = chunkX(e.getKey()) << CHUNK_BITS;
+            int chunkTop = chunkY(e.getKey()) << CHUNK_BITS;
+            for (int r = 0; r < CHUNK_SIZE; r++) {
+                int row = chunkTop + r - top;
+                if (row < 0 || row >= height) continue;
+                for (long word = chunk[r]; word != 0; word &= word - 1) {
+                    int col = chunkLeft + Long.numberOfTrailingZeros(word) - left;
+                    if (col >= 0 && col < width) world.setCell(col, row, true);
+                }
+            }
+        }
+        return world;
+    }
+
+    /**
+     * Generates next generation. Only chunks holding live cells, and the
+     * neighbours their live cells border, are computed.
+     */
+    public void nextGeneration() {
+        Set<Long> candidates = mCandidates;
+        for (Map.Entry<Long, long[]> e : mChunks.entrySet()) {
+            long[] chunk = e.getValue();
+            int cx = chunkX(e.getKey());
+            int cy = chunkY(e.getKey());
+            candidates.add(e.getKey());
+            long columns = 0;
+            for (long word : chunk)
+                columns |= word;
+            boolean north = chunk[0] != 0, south = chunk[CHUNK_SIZE - 1] != 0;
+            boolean west = (columns & 1) != 0, east = (columns >>> 63) != 0;
+            if (north) candidates.add(key(cx, cy - 1));
+            if (south) candidates.add(key(cx, cy + 1));
+            if (west) candidates.add(key(cx - 1, cy));
+            if (east) candidates.add(key(cx + 1, cy));
+            if ((chunk[0] & 1) != 0) candidates.add(key(cx - 1, cy - 1));
+            if ((chunk[0] >>> 63) != 0) candidates.add(key(cx + 1, cy - 1));
+            if ((chunk[CHUNK_SIZE - 1] & 1) != 0) candidates.add(key(cx - 1, cy + 1));
+            if ((chunk[CHUNK_SIZE - 1] >>> 63) != 0) candidates.add(key(cx + 1, cy + 1));
+        }
+
+        for (long key : candidates) {
+            long[] next = computeChunk(chunkX(key), chunkY(key));
+            if (next != null) mNextChunks.put(key, next);
+        }
+        candidates.clear();
+
+        // Swaps the maps, keeping this generation's chunks for reuse
+        Map<Long, long[]> previous = mChunks;
+        mChunks = mNextChunks;
+        mFreeChunks.addAll(previous.values());
+        previous.clear();
+        mNextChunks = previous;
+        mGeneration++;
+    }
+
+    /**
+     * Helper method - computes the next generation of a chunk from its 3x3
+     * neighbourhood of chunks.
+     * @param cx   Chunk column
+     * @param cy   Chunk row
+     * @return   Next generation of the chunk, or null if it is entirely dead
+     */
+    private long[] computeChunk(int cx, int cy) {
+        long[] west = chunk(cx - 1, cy), centre = chunk(cx, cy), east = chunk(cx + 1, cy);
+        int last = CHUNK_SIZE - 1;
+        mWestColumn[0] = chunk(cx - 1, cy - 1)[last];
+        mCentreColumn[0] = chunk(cx, cy - 1)[last];
+        mEastColumn[0] = chunk(cx + 1, cy - 1)[last];
+        System.arraycopy(west, 0, mWestColumn, 1, CHUNK_SIZE);
+        System.arraycopy(centre, 0, mCentreColumn, 1, CHUNK_SIZE);
+        System.arraycopy(east, 0, mEastColumn, 1, CHUNK_SIZE);
+        mWestColumn[CHUNK_SIZE + 1] = chunk(cx - 1, cy + 1)[0];
+        mCentreColumn[CHUNK_SIZE + 1] = chunk(cx, cy + 1)[0];
+        mEastColumn[CHUNK_SIZE + 1] = chunk(cx + 1, cy + 1)[0];
+
+        long[] next = null;
+        for (int r = 0; r < CHUNK_SIZE; r++) {
+            // Padded index r is the row above, r + 1 this row, r + 2 below
+            long word = World.nextWord(mRule,
+                    westOf(r), mCentreColumn[r], eastOf(r),
+                    westOf(r + 1), mCentreColumn[r + 1], eastOf(r + 1),
+                    westOf(r + 2), mCentreColumn[r + 2], eastOf(r + 2));
+            if (word != 0) {
+                if (next == null) next = newChunk();
+                next[r] = word;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Helper method - gets an empty chunk, reusing one freed by an earlier
+     * generation if there is one.
+     * @return   Chunk with every cell dead
+     */
+    private long[] newChunk() {
+        long[] chunk = mFreeChunks.poll();
+        if (chunk == null) return new long[CHUNK_SIZE];
+        Arrays.fill(chunk, 0);
+        return chunk;
+    }
+
+    /**
+     * Helper method - gets the west neighbours of a padded row of the
+     * chunk being computed.
+     * @param p   Padded row index
+     * @return   Word whose bit n holds the cell to the left of bit n
+     */
+    private long westOf(int p) {
+        return (mCentreColumn[p] << 1) | (mWestColumn[p] >>> 63);
+    }
+
+    /**
+     * Helper method - gets the east neighbours of a padded row of the
+     * chunk being computed.
+     * @param p   Padded row index
+     * @return   Word whose bit n holds the cell to the right of bit n
+     */
+    private long eastOf(int p) {
+        return (mCentreColumn[p] >>> 1) | (mEastColumn[p] << 63);
+    }
+
+    /**
+     * Helper method - gets a chunk, or an empty chunk if it holds no cells.
+     * @param cx   Chunk column
+     * @param cy   Chunk row
+     * @return   Chunk (must not be modified)
+     */
+    private long[] chunk(int cx, int cy) {
+        long[] chunk = mChunks.get(key(cx, cy));
+        return (chunk != null) ? chunk : EMPTY_CHUNK;
+    }
+
+    /**
+     * Helper method - checks whether a chunk holds no live cells.
+     * @param chunk   Chunk
+     * @return   True if every cell is dead
+     */
+    private static boolean isEmpty(long[] chunk) {
+        for (long word : chunk)
+            if (word != 0) return false;
+        return true;
+    }
+
+    /**
+     * Helper method - packs chunk coordinates into a map key.
+     * @param cx   Chunk column
+     * @param cy   Chunk row
+     * @return   Key
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Helper method - unpacks the chunk column from a map key.
+     * @param key   Key
+     * @return   Chunk column
+     */
+    private static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Helper method - unpacks the chunk row from a map key.
+     * @param key   Key
+     * @return   Chunk row
+     */
+    private static int chunkY(long key) {
+        return (int) key;
+    }
+}
@@ -1,16 +1,77 @@
 package uk.ac.cam.cjo41.gameoflife;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
- * Represents a world using a boolean array.
+ * Represents a world using a bit-packed array - each row is an array of
+ * longs, holding 64 cells per word (cell x lives in bit x % 64 of word
+ * x / 64 + 1). Rows are padded with an always-dead guard word at each end,
+ * and the world with an always-dead halo row above and below, so stepping
+ * never needs to check for edges.
+ * Every row owns (up to) two buffers which generations alternate between, so
+ * stepping the world does not allocate once the buffers exist. Rows whose
+ * neighbourhood did not change in the last generation are not recomputed, and
+ * stepping can be split into bands of rows which are computed in parallel.
+ * Rows are copy-on-write: a copy of a world shares every row with the
+ * original, and a row is only written to by the world owning it as one of
+ * its buffers. Rows which do not change are carried into the next generation
+ * by reference, so copies of a mostly-stable world share most of their rows.
+ * Births and deaths are counted as each row is computed, which keeps the
+ * population up to date without another pass over the cells, and listeners
+ * can be told about every generation computed (see WorldListener).
  */
 public class World implements Cloneable {
 
-    private boolean[][] mWorld;
+    private long[][] mWorld;
+    private long[][] mNextWorld;
+    private long[][] mBufferA;
+    private long[][] mBufferB;
+    private boolean[] mChanged;
+    private boolean[] mNextChanged;
+    private long[] mRowHashes;
+    private long mHash;
+    private boolean mHashValid;
+    private long mPopulation;
+    private boolean mPopulationValid = true;
+    private long mBirths;
+    private long mDeaths;
+    private long[] mActivity;
+    private WorldListener[] mListeners = NO_LISTENERS;
     private int mHeight;
     private int mWidth;
-    private boolean[] mDeadRow;
+    private int mWords;
+    private long mTailMask;
+    private long[] mDeadRow;
     private int mGeneration;
     private Pattern mPattern;
+    private Rule mRule = Rule.CONWAY;
+    private int mThreads = 1;
+    private int mBandSize = DEFAULT_BAND_SIZE;
+    private ForkJoinPool mPool;
+
+    /**
+     * Default number of rows computed by each parallel task.
+     */
+    public static final int DEFAULT_BAND_SIZE = 64;
+
+    // Flags returned by computeRow()
+    private static final int ROW_LIVE = 1;
+    private static final int ROW_CHANGED = 2;
+
+    // Indexes of the counts computeRow() adds to
+    private static final int BIRTHS = 0;
+    private static final int DEATHS = 1;
+
+    // Pools shared by every world stepped with the same number of threads
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private static final WorldListener[] NO_LISTENERS = new WorldListener[0];
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
 
     /**
      * Constructor - takes a Pattern object and creates new world.
@@ -18,53 +79,117 @@ public class World implements Cloneable {
      * @throws PatternFormatException
      */
     public World(Pattern p) throws PatternFormatException {
-        // Pattern constructor, uses replaceDeadRows()
+        this(p.getWidth(), p.getHeight());
         mPattern = p;
-        mHeight = p.getHeight();
-        mWidth = p.getWidth();
-        mDeadRow = new boolean[mWidth];
-        mWorld = new boolean[mHeight][mWidth];
+        mRule = p.getRule();
         mPattern.initialise(this);
-        replaceDeadRows();
     }
 
     /**
-     * Copy constructor - takes an existing World object.
+     * Constructor - creates an empty world of the given size, running
+     * Conway's rules, e.g. to copy a window of another representation into.
+     * @param width    Width of world
+     * @param height   Height of world
+     */
+    public World(int width, int height) {
+        // Every row starts as the shared dead row
+        mHeight = height;
+        mWidth = width;
+        mWords = (mWidth + 63) >>> 6;
+        mTailMask = (mWidth % 64 == 0) ? -1L : (1L << (mWidth % 64)) - 1;
+        mDeadRow = new long[mWords + 2];
+        mWorld = new long[mHeight + 2][];
+        Arrays.fill(mWorld, mDeadRow);
+        createBuffers();
+        // Nothing has been computed yet, so every row must be
+        mChanged = new boolean[mHeight + 2];
+        Arrays.fill(mChanged, 1, mHeight + 1, true);
+        mRowHashes = new long[mHeight + 2];
+    }
+
+    /**
+     * Copy constructor - takes an existing World object. The copy shares
+     * the rows of w, which gives up ownership of them - whichever world
+     * next writes to a shared row makes its own copy of it first.
      * @param w   World object
      */
     public World(World w) {
         // Copy constructor
         mHeight = w.mHeight;
         mWidth = w.mWidth;
+        mWords = w.mWords;
+        mTailMask = w.mTailMask;
         mDeadRow = w.mDeadRow;
-        // Deep copy of mWorld
-        mWorld = new boolean[mHeight][mWidth];
-        for (int i=0; i<mHeight; i++) {
-            if (w.mWorld[i] == w.mDeadRow)
-                mWorld[i] = mDeadRow;
-            else
-                mWorld[i] = w.mWorld[i].clone();
-        }
+        mRule = w.mRule;
+        createBuffers();
+        mChanged = w.mChanged.clone();
+        mRowHashes = w.mRowHashes.clone();
+        mHash = w.mHash;
+        mHashValid = w.mHashValid;
+        mPopulation = w.mPopulation;
+        mPopulationValid = w.mPopulationValid;
+        // Shallow copy of mWorld - rows are shared until written to
+        w.disownRows();
+        mWorld = w.mWorld.clone();
     }
 
     /**
-     * Replaces rows which are entirely dead with a reference to a single
-     * (all-false) boolean array - saves memory
+     * Creates empty row buffers - individual rows are allocated the first
+     * time they are needed. Arrays of rows are indexed including the halo,
+     * so world row y is at index y + 1.
      */
-    private void replaceDeadRows() {
-        for (int i=0; i < mHeight; i++) {
-            boolean[] row = mWorld[i];
-            boolean allDead = true;
-            for (boolean val : row) {
-                if (val) {
-                    allDead = false;
-                    break;
-                }
-            }
-            if (allDead) mWorld[i] = mDeadRow;
+    private void createBuffers() {
+        mNextWorld = new long[mHeight + 2][];
+        Arrays.fill(mNextWorld, mDeadRow);
+        mNextChanged = new boolean[mHeight + 2];
+        mBufferA = new long[mHeight + 2][];
+        mBufferB = new long[mHeight + 2][];
+        mActivity = new long[2];
+    }
+
+    /**
+     * Gives up ownership of the rows of the current generation, so that they
+     * can be shared with a copy of this world. The buffers not holding the
+     * current generation are kept.
+     */
+    private void disownRows() {
+        for (int r = 1; r <= mHeight; r++) {
+            if (mBufferA[r] == mWorld[r]) mBufferA[r] = null;
+            if (mBufferB[r] == mWorld[r]) mBufferB[r] = null;
         }
     }
 
+    /**
+     * Gets row r of the current generation for writing, first copying it
+     * into a buffer if it is shared (or is the dead row).
+     * @param r   Row index (including the halo)
+     * @return   Row owned by this world
+     */
+    private long[] writableRow(int r) {
+        long[] words = mWorld[r];
+        if (words == mBufferA[r] || words == mBufferB[r]) return words;
+        long[] copy = backBuffer(r);
+        System.arraycopy(words, 0, copy, 0, words.length);
+        mWorld[r] = copy;
+        return copy;
+    }
+
+    /**
+     * Gets the buffer of row r which is not holding the current generation,
+     * allocating it if this row has not needed one before.
+     * @param r   Row index (including the halo)
+     * @return   Buffer which is free to be overwritten
+     */
+    private long[] backBuffer(int r) {
+        if (mBufferA[r] == null)
+            mBufferA[r] = new long[mWords + 2];
+        if (mWorld[r] != mBufferA[r])
+            return mBufferA[r];
+        if (mBufferB[r] == null)
+            mBufferB[r] = new long[mWords + 2];
+        return mBufferB[r];
+    }
+
     /**
      * Gets width of world.
      * @return   Width of world
@@ -89,6 +214,128 @@ public class World implements Cloneable {
         return mGeneration;
     }
 
+    /**
+     * Gets a 64-bit fingerprint of the cells of this world, e.g. to detect
+     * when a pattern repeats. Worlds with equal cells have equal hashes, and
+     * different cells almost certainly give different hashes. The hash is
+     * kept up to date as the world is stepped, by rehashing only the rows
+     * which changed - it is only recomputed from scratch after cells have
+     * been set directly.
+     * @return   Hash of the current generation
+     */
+    public long getHash() {
+        if (!mHashValid) {
+            mHash = 0;
+            for (int r = 1; r <= mHeight; r++) {
+                mRowHashes[r] = hashRow(r, mWorld[r]);
+                mHash ^= mRowHashes[r];
+            }
+            mHashValid = true;
+        }
+        return mHash;
+    }
+
+    /**
+     * Gets the number of live cells. This is kept up to date from the births
+     * and deaths of each generation, and only counted from scratch after
+     * cells have been set directly.
+     * @return   Population
+     */
+    public long getPopulation() {
+        if (!mPopulationValid) {
+            long population = 0;
+            for (int r = 1; r <= mHeight; r++) {
+                if (mWorld[r] == mDeadRow) continue;
+                for (long word : mWorld[r])
+                    population += Long.bitCount(word);
+            }
+            mPopulation = population;
+            mPopulationValid = true;
+        }
+        return mPopulation;
+    }
+
+    /**
+     * Gets the number of cells which came alive in the last generation
+     * computed.
+     * @return   Births, or 0 if no generation has been computed
+     */
+    public long getBirths() {
+        return mBirths;
+    }
+
+    /**
+     * Gets the number of cells which died in the last generation computed.
+     * @return   Deaths, or 0 if no generation has been computed
+     */
+    public long getDeaths() {
+        return mDeaths;
+    }
+
+    /**
+     * Adds a listener to be told about each generation computed. Copies of
+     * this world start with no listeners, so generations which a copy
+     * computes again (e.g. to rebuild history) are not reported twice.
+     * @param listener   Listener
+     */
+    public void addListener(WorldListener listener) {
+        WorldListener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+
+    /**
+     * Gets the listeners added with addListener().
+     * @return   Listeners, which must not be modified
+     */
+    WorldListener[] getListeners() {
+        return mListeners;
+    }
+
+    /**
+     * Removes a listener added with addListener().
+     * @param listener   Listener
+     */
+    public void removeListener(WorldListener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i] != listener) continue;
+            WorldListener[] listeners = new WorldListener[mListeners.length - 1];
+            System.arraycopy(mListeners, 0, listeners, 0, i);
+            System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+            mListeners = listeners;
+            return;
+        }
+    }
+
+    /**
+     * Estimates the heap memory held by this world - the row buffers it owns
+     * and its bookkeeping arrays, but not the dead row or rows it shares with
+     * copies, so a history of worlds is charged only for the rows each
+     * generation changed.
+     * @return   Approximate size in bytes
+     */
+    public long getMemoryFootprint() {
+        long rowBytes = 16 + 8L * (mWords + 2);
+        long bytes = 4 * (16 + 8L * (mHeight + 2)) + 2 * (16 + mHeight + 2);
+        for (int r = 1; r <= mHeight; r++) {
+            if (mBufferA[r] != null) bytes += rowBytes;
+            if (mBufferB[r] != null) bytes += rowBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases row buffers which are not holding the current generation,
+     * e.g. before keeping this world for a long time without stepping it.
+     * They are reallocated if the world is stepped again.
+     */
+    public void trimToSize() {
+        for (int r = 1; r <= mHeight; r++) {
+            if (mBufferA[r] != mWorld[r]) mBufferA[r] = null;
+            if (mBufferB[r] != mWorld[r]) mBufferB[r] = null;
+        }
+    }
+
     /**
      * Gets the pattern which this world belongs to.
      * @return   Pattern
@@ -98,30 +345,343 @@ public class World implements Cloneable {
     }
 
     /**
-     * Generates next generation and updates the local world reference.
+     * Sets the generation number, e.g. after moving the world to another
+     * generation by applying a delta.
+     * @param generation   Generation number
+     */
+    void setGenerationCount(int generation) {
+        mGeneration = generation;
+    }
+
+    /**
+     * Gets the number of 64-cell words in each row.
+     * @return   Words per row
+     */
+    int getWordsPerRow() {
+        return mWords;
+    }
+
+    /**
+     * Gets a word of cells - cell 64 * i + n is bit n.
+     * @param row   Row
+     * @param i     Index of word within the row
+     * @return   Word
+     */
+    long getWord(int row, int i) {
+        return mWorld[row + 1][i + 1];
+    }
+
+    /**
+     * Checks whether a row of this world is the same array as the same row
+     * of another, in which case their cells are certainly equal.
+     * @param other   Other world
+     * @param row     Row
+     * @return   True if the row is shared
+     */
+    boolean sharesRow(World other, int row) {
+        return mWorld[row + 1] == other.mWorld[row + 1];
+    }
+
+    /**
+     * Flips the cells of a word which are set in a mask.
+     * @param row    Row
+     * @param i      Index of word within the row
+     * @param mask   Cells to flip
+     */
+    void flipWord(int row, int i, long mask) {
+        int r = row + 1;
+        mChanged[r] = true;
+        mHashValid = false;
+        mPopulationValid = false;
+        // Shared rows must not be written to
+        writableRow(r)[i + 1] ^= mask;
+    }
+
+    /**
+     * Gets the rule which this world is run with.
+     * @return   Rule
+     */
+    public Rule getRule() {
+        return mRule;
+    }
+
+    /**
+     * Sets the rule which this world is run with from the next generation on.
+     * @param rule   Rule
+     */
+    public void setRule(Rule rule) {
+        mRule = rule;
+        // Results computed under the old rule no longer hold
+        Arrays.fill(mChanged, 1, mHeight + 1, true);
+    }
+
+    /**
+     * Gets the number of threads used to compute each generation.
+     * @return   Number of threads
+     */
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * Sets the number of threads used to compute each generation - 1 steps
+     * the world serially. The result is identical whatever the setting.
+     * Worlds using the same number of threads share one pool of them.
+     * @param threads   Number of threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1 (" + threads + " given).");
+        mThreads = threads;
+        // Pool threads are daemons and are reused, so worlds need no closing
+        mPool = (threads > 1) ? POOLS.computeIfAbsent(threads, ForkJoinPool::new) : null;
+    }
+
+    /**
+     * Gets the number of rows computed by each parallel task.
+     * @return   Band size in rows
+     */
+    public int getBandSize() {
+        return mBandSize;
+    }
+
+    /**
+     * Sets the number of rows computed by each parallel task.
+     * @param bandSize   Band size in rows
+     */
+    public void setBandSize(int bandSize) {
+        if (bandSize < 1)
+            throw new IllegalArgumentException("Band size must be at least 1 (" + bandSize + " given).");
+        mBandSize = bandSize;
+    }
+
+    /**
+     * Generates next generation into the back buffers and swaps them in.
+     * Rows which come out entirely dead are replaced with the shared dead
+     * row as they are computed.
      */
     protected void nextGeneration() {
-        boolean[][] nextGeneration = new boolean[mHeight][];
-        for (int y = 0; y < mHeight; ++y) {
-            nextGeneration[y] = new boolean[mWorld[y].length];
-            for (int x = 0; x < mWidth; ++x) {
-                boolean nextCell = computeCell(x, y);
-                nextGeneration[y][x] = nextCell;
-            }
+        // Listeners are fixed for the generation, and only timed if there are any
+        WorldListener[] listeners = mListeners;
+        long start = 0;
+        long allocated = 0;
+        if (listeners.length != 0) {
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+        }
+
+        long hashChange;
+        long[] activity;
+        if (mPool != null && mHeight > mBandSize) {
+            StepTask task = new StepTask(0, mHeight);
+            mPool.invoke(task);
+            hashChange = task.mHashChange;
+            activity = task.mActivity;
         }
+        else {
+            activity = mActivity;
+            Arrays.fill(activity, 0);
+            hashChange = stepRows(0, mHeight, activity);
+        }
+        // Only meaningful if the row hashes were up to date beforehand
+        mHash ^= hashChange;
+        mBirths = activity[BIRTHS];
+        mDeaths = activity[DEATHS];
+        // Likewise only meaningful if the population was known beforehand
+        mPopulation += mBirths - mDeaths;
+        long[][] nextGeneration = mNextWorld;
+        mNextWorld = mWorld;
         mWorld = nextGeneration;
+        boolean[] nextChanged = mNextChanged;
+        mNextChanged = mChanged;
+        mChanged = nextChanged;
         mGeneration++;
-        replaceDeadRows();
+
+        if (listeners.length != 0) {
+            long nanos = System.nanoTime() - start;
+            long bytes = (allocated < 0) ? -1 : allocatedBytes() - allocated;
+            for (WorldListener listener : listeners)
+                listener.generationComputed(this, mBirths, mDeaths, nanos, bytes);
+        }
+    }
+
+    /**
+     * Helper method - gets the bytes allocated so far by the current thread,
+     * if the JVM can measure it. Allocations by the threads of a parallel
+     * world are not included.
+     * @return   Bytes allocated, or -1 if not supported
+     */
+    private static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 
     /**
-     * Sets cell at (row, col) to value
+     * Helper method - computes rows [from, to) of the next generation into
+     * mNextWorld. Only touches state belonging to those rows, so disjoint
+     * ranges can be computed concurrently.
+     * @param from       First row (inclusive)
+     * @param to         Last row (exclusive)
+     * @param activity   Counts of births and deaths, added to
+     * @return   Change to the world's hash from the rows which changed
+     */
+    private long stepRows(int from, int to, long[] activity) {
+        long[][] nextGeneration = mNextWorld;
+        boolean[] nextChanged = mNextChanged;
+        Rule rule = mRule;
+        // Dead cells with no live neighbours stay dead, unless the rule has B0
+        boolean deadStaysDead = !rule.birthsFromNothing();
+        long hashChange = 0;
+        for (int r = from + 1; r <= to; ++r) {
+            // Halo rows mean the top and bottom rows need no special case
+            long[] above = mWorld[r - 1];
+            long[] row = mWorld[r];
+            long[] below = mWorld[r + 1];
+            // No live cells in reach, or same neighbourhood as last
+            // generation - row stays as it is without computing it
+            if ((deadStaysDead && above == mDeadRow && row == mDeadRow && below == mDeadRow)
+                    || !(mChanged[r - 1] || mChanged[r] || mChanged[r + 1])) {
+                nextGeneration[r] = row;
+                nextChanged[r] = false;
+                continue;
+            }
+            long[] next = backBuffer(r);
+            int result = computeRow(rule, above, row, below, next, activity);
+            if ((result & ROW_CHANGED) == 0) {
+                nextGeneration[r] = row;
+                nextChanged[r] = false;
+            }
+            else {
+                nextGeneration[r] = ((result & ROW_LIVE) != 0) ? next : mDeadRow;
+                nextChanged[r] = true;
+                long hash = hashRow(r, next);
+                hashChange ^= mRowHashes[r] ^ hash;
+                mRowHashes[r] = hash;
+            }
+        }
+        return hashChange;
+    }
+
+    /**
+     * Helper method - hashes the cells of a row, mixed with its index so that
+     * the same row in a different place hashes differently. The world's hash
+     * is the XOR of its row hashes.
+     * @param r       Row index (including the halo)
+     * @param words   Cells of the row
+     * @return   Row hash
+     */
+    private long hashRow(int r, long[] words) {
+        // Words are mixed independently of each other, so the loop is not
+        // held up waiting for one multiply before starting the next
+        long h = 0;
+        for (int i = 1; i <= mWords; i++)
+            h += (words[i] ^ (i * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        h ^= r * 0xD6E8FEB86659FD93L;
+        // Final avalanche, so nearby rows and words are well separated
+        h = (h ^ (h >>> 31)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Task which computes a range of rows, splitting it in half until it is
+     * no larger than the band size.
+     */
+    private class StepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mFrom;
+        private final int mTo;
+        private long mHashChange;
+        private final long[] mActivity = new long[2];
+
+        /**
+         * Constructor - takes the range of rows to compute.
+         * @param from   First row (inclusive)
+         * @param to     Last row (exclusive)
+         */
+        StepTask(int from, int to) {
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mBandSize) {
+                mHashChange = stepRows(mFrom, mTo, mActivity);
+            }
+            else {
+                int mid = (mFrom + mTo) >>> 1;
+                StepTask top = new StepTask(mFrom, mid);
+                StepTask bottom = new StepTask(mid, mTo);
+                invokeAll(top, bottom);
+                mHashChange = top.mHashChange ^ bottom.mHashChange;
+                mActivity[BIRTHS] = top.mActivity[BIRTHS] + bottom.mActivity[BIRTHS];
+                mActivity[DEATHS] = top.mActivity[DEATHS] + bottom.mActivity[DEATHS];
+            }
+        }
+    }
+
+    /**
+     * Sets cell at (row, col) to value. Cells outside the world are ignored.
      * @param col
      * @param row
      * @param value
      */
     public void setCell(int col, int row, boolean value) {
-        mWorld[row][col] = value;
+        // Ignores cells outside the world, as getCell does - rows above or
+        // below would write into the halo rows, and columns past the
+        // right-hand edge into padding bits which must stay clear
+        if (col < 0 || row < 0 || col >= mWidth || row >= mHeight) return;
+        int r = row + 1;
+        mChanged[r] = true;
+        mHashValid = false;
+        mPopulationValid = false;
+        if (mWorld[r] == mDeadRow && !value) return;
+        // Shared rows must not be written to
+        long[] words = writableRow(r);
+        if (value)
+            words[(col >>> 6) + 1] |= 1L << col;
+        else
+            words[(col >>> 6) + 1] &= ~(1L << col);
+    }
+
+    /**
+     * Sets every cell which is set in a bitmap, placed with its top-left
+     * corner at (col, row), a row (or word) at a time. Cells which fall
+     * outside the world are left out.
+     * @param bitmap   Rows of cells, row i and cell j being bit j % 64 of
+     *                 word j / 64
+     * @param col      Column of the bitmap's left edge
+     * @param row      Row of the bitmap's top edge
+     */
+    void setCells(long[][] bitmap, int col, int row) {
+        int shift = col & 63;
+        // Word k of the bitmap lands on words base + k and base + k + 1
+        int base = col >> 6;
+        for (int i = 0; i < bitmap.length; i++) {
+            int r = row + i + 1;
+            if (r < 1 || r > mHeight) continue;
+            long[] source = bitmap[i];
+            long any = 0;
+            for (long word : source) any |= word;
+            if (any == 0) continue;
+            mChanged[r] = true;
+            mHashValid = false;
+            mPopulationValid = false;
+            long[] words = writableRow(r);
+            for (int k = 0; k < source.length; k++) {
+                int w = base + k;
+                if (w >= 0 && w < mWords)
+                    words[w + 1] |= source[k] << shift;
+                if (shift != 0 && w + 1 >= 0 && w + 1 < mWords)
+                    words[w + 2] |= source[k] >>> (64 - shift);
+            }
+            // Clears cells past the right-hand edge of the world
+            words[mWords] &= mTailMask;
+        }
     }
 
     /**
@@ -136,7 +696,124 @@ public class World implements Cloneable {
             return false;
         if (col > mWidth - 1)
             return false;
-        else return mWorld[row][col];
+        else return (mWorld[row + 1][(col >>> 6) + 1] & (1L << col)) != 0;
+    }
+
+    /**
+     * Helper method - computes a whole row of the next generation, 64 cells
+     * at a time.
+     * @param rule    Rule to apply
+     * @param above   Row above (the halo row if at the top edge)
+     * @param row     Row being computed
+     * @param below   Row below (the halo row if at the bottom edge)
+     * @param next       Buffer to write the next generation of the row into
+     * @param activity   Counts of births and deaths, added to
+     * @return   ROW_LIVE if any cell in the row is alive, plus ROW_CHANGED if
+     *           any cell differs from the current generation
+     */
+    private int computeRow(Rule rule, long[] above, long[] row, long[] below, long[] next, long[] activity) {
+        long live = 0;
+        long changed = 0;
+        // Cells which flipped are births if now alive, otherwise deaths
+        int flipped = 0;
+        int births = 0;
+        int last = mWords;
+        for (int i = 1; i < last; i++) {
+            long word = computeWord(rule, above, row, below, i);
+            next[i] = word;
+            live |= word;
+            long flip = word ^ row[i];
+            changed |= flip;
+            flipped += Long.bitCount(flip);
+            births += Long.bitCount(flip & word);
+        }
+        // Clears cells past the right-hand edge of the world
+        long word = computeWord(rule, above, row, below, last) & mTailMask;
+        next[last] = word;
+        live |= word;
+        long flip = word ^ row[last];
+        changed |= flip;
+        flipped += Long.bitCount(flip);
+        births += Long.bitCount(flip & word);
+        activity[BIRTHS] += births;
+        activity[DEATHS] += flipped - births;
+        return ((live != 0) ? ROW_LIVE : 0) | ((changed != 0) ? ROW_CHANGED : 0);
+    }
+
+    /**
+     * Helper method - computes word i of the next generation of a row. The
+     * guard words either side of the row mean every word has a neighbour
+     * word to take its edge cells from.
+     * @param rule    Rule to apply
+     * @param above   Row above
+     * @param row     Row being computed
+     * @param below   Row below
+     * @param i       Index of word within the row (1 to mWords)
+     * @return   Next generation of the word
+     */
+    private static long computeWord(Rule rule, long[] above, long[] row, long[] below, int i) {
+        return nextWord(rule, (above[i] << 1) | (above[i - 1] >>> 63), above[i], (above[i] >>> 1) | (above[i + 1] << 63),
+                (row[i] << 1) | (row[i - 1] >>> 63), row[i], (row[i] >>> 1) | (row[i + 1] << 63),
+                (below[i] << 1) | (below[i - 1] >>> 63), below[i], (below[i] >>> 1) | (below[i + 1] << 63));
+    }
+
+    /**
+     * Computes the next generation of 64 cells at once, from words holding
+     * each cell's eight neighbours at the same bit position. The neighbour
+     * counts are summed bitwise (one adder per bit position), giving the
+     * count of every cell in the word as bit-planes, which the rule then
+     * maps to the cells' next states.
+     * @param rule   Rule to apply
+     * @param aw   North-west neighbours
+     * @param a    North neighbours
+     * @param ae   North-east neighbours
+     * @param cw   West neighbours
+     * @param c    The cells themselves
+     * @param ce   East neighbours
+     * @param bw   South-west neighbours
+     * @param b    South neighbours
+     * @param be   South-east neighbours
+     * @return   Next generation of the cells
+     */
+    static long nextWord(Rule rule, long aw, long a, long ae, long cw, long c, long ce,
+                         long bw, long b, long be) {
+        // Full adders over the eight neighbours: weight-1 sums, weight-2 carries
+        long s0 = aw ^ a ^ ae;
+        long c0 = (aw & a) | (ae & (aw ^ a));
+        long s1 = cw ^ ce ^ bw;
+        long c1 = (cw & ce) | (bw & (cw ^ ce));
+        long s2 = b ^ be;
+        long c2 = b & be;
+
+        long ones = s0 ^ s1 ^ s2;
+        long k0 = (s0 & s1) | (s2 & (s0 ^ s1));
+
+        // Four weight-2 carries (c0, c1, c2, k0) summed into twos, fours, eights
+        long t = c0 ^ c1 ^ c2;
+        long d0 = (c0 & c1) | (c2 & (c0 ^ c1));
+        long twos = t ^ k0;
+        long k1 = t & k0;
+        long fours = d0 ^ k1;
+        long eights = d0 & k1;
+
+        return rule.apply(c, ones, twos, fours, eights);
+    }
+
+    /**
+     * Generates next generation one cell at a time, applying the rules to
+     * each cell's bounds-checked neighbours. Much slower than
+     * nextGeneration() - kept as a reference implementation to check the
+     * word-parallel step against.
+     */
+    void nextGenerationReference() {
+        boolean[][] nextGeneration = new boolean[mHeight][mWidth];
+        for (int y = 0; y < mHeight; ++y)
+            for (int x = 0; x < mWidth; ++x)
+                nextGeneration[y][x] = computeCell(x, y);
+        for (int y = 0; y < mHeight; ++y)
+            for (int x = 0; x < mWidth; ++x)
+                setCell(x, y, nextGeneration[y][x]);
+        mGeneration++;
     }
 
     /**
@@ -167,17 +844,8 @@ public class World implements Cloneable {
     private boolean computeCell(int col, int row) {
         boolean liveCell = getCell(col, row);
         int neighbours = countNeighbours(col, row);
-        boolean nextCell = false;
-        // A live cell with less than two neighbours (underpopulation) or more than 3 neighbours (overcrowding) dies
-        if (neighbours < 2 || neighbours > 3)
-            nextCell = false;
-        // A live cell with two or three neighbours lives (a balanced population)
-        if (neighbours >= 2 && neighbours <= 3 && liveCell)
-            nextCell = true;
-        //A dead cell with exactly three live neighbours comes alive
-        if (neighbours == 3 && !liveCell)
-            nextCell = true;
-        return nextCell;
+        // A live cell survives, or a dead cell is born, if the rule has its count
+        return mRule.next(liveCell, neighbours);
     }
 
     /**
@@ -186,14 +854,14 @@ public class World implements Cloneable {
      */
     public World clone() throws CloneNotSupportedException {
         World cloned = (World) super.clone();
-        // Deep clone mWorld
-        cloned.mWorld = new boolean[mHeight][];
-        for (int i=0; i<mHeight; i++) {
-            if (mWorld[i] == mDeadRow)
-                cloned.mWorld[i] = cloned.mDeadRow;
-            else
-                cloned.mWorld[i] = mWorld[i].clone();
-        }
+        // Clone gets its own buffers, and shares the rows of mWorld until
+        // either world writes to them
+        cloned.createBuffers();
+        cloned.mChanged = mChanged.clone();
+        cloned.mRowHashes = mRowHashes.clone();
+        cloned.mListeners = NO_LISTENERS;
+        disownRows();
+        cloned.mWorld = mWorld.clone();
         return cloned;
     }
 }
@@ -0,0 +1,153 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import java.util.Arrays;
+
+/**
+ * Records the cells which differ between two generations of a world, as the
+ * 64-cell words which changed and a mask of the flipped cells in each. A
+ * delta can be applied to the earlier world to give the later one, or
+ * reverted on the later world to give the earlier one, so a history of
+ * deltas costs memory in proportion to activity rather than board size.
+ */
+public class WorldDelta {
+
+    private final int mFromGeneration;
+    private final int mToGeneration;
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mRows;
+    private final int[] mWords;
+    private final long[] mFlips;
+
+    /**
+     * Constructor - takes the changed words, as parallel arrays.
+     * @param from    World before
+     * @param to      World after
+     * @param rows    Row of each changed word
+     * @param words   Index within its row of each changed word
+     * @param flips   Cells flipped in each changed word
+     */
+    private WorldDelta(World from, World to, int[] rows, int[] words, long[] flips) {
+        mFromGeneration = from.getGenerationCount();
+        mToGeneration = to.getGenerationCount();
+        mWidth = from.getWidth();
+        mHeight = from.getHeight();
+        mRows = rows;
+        mWords = words;
+        mFlips = flips;
+    }
+
+    /**
+     * Records the difference between two worlds of the same size. Rows which
+     * the two worlds share are skipped without being compared.
+     * @param from   World before
+     * @param to     World after
+     * @return   Delta which turns from into to
+     */
+    public static WorldDelta between(World from, World to) {
+        if (from.getWidth() != to.getWidth() || from.getHeight() != to.getHeight())
+            throw new IllegalArgumentException("Worlds must be the same size to be compared.");
+        int wordsPerRow = from.getWordsPerRow();
+        int count = 0;
+        int[] rows = new int[16];
+        int[] words = new int[16];
+        long[] flips = new long[16];
+        for (int row = 0; row < from.getHeight(); row++) {
+            if (from.sharesRow(to, row)) continue;
+            for (int i = 0; i < wordsPerRow; i++) {
+                long flip = from.getWord(row, i) ^ to.getWord(row, i);
+                if (flip == 0) continue;
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, count * 2);
+                    words = Arrays.copyOf(words, count * 2);
+                    flips = Arrays.copyOf(flips, count * 2);
+                }
+                rows[count] = row;
+                words[count] = i;
+                flips[count] = flip;
+                count++;
+            }
+        }
+        return new WorldDelta(from, to, Arrays.copyOf(rows, count),
+                Arrays.copyOf(words, count), Arrays.copyOf(flips, count));
+    }
+
+    /**
+     * Gets the generation which this delta starts from.
+     * @return   Generation number
+     */
+    public int getFromGeneration() {
+        return mFromGeneration;
+    }
+
+    /**
+     * Gets the generation which this delta leads to.
+     * @return   Generation number
+     */
+    public int getToGeneration() {
+        return mToGeneration;
+    }
+
+    /**
+     * Gets the number of cells which differ between the two generations.
+     * @return   Number of cells flipped
+     */
+    public int getFlippedCellCount() {
+        int cells = 0;
+        for (long flip : mFlips)
+            cells += Long.bitCount(flip);
+        return cells;
+    }
+
+    /**
+     * Estimates the heap memory held by this delta.
+     * @return   Approximate size in bytes
+     */
+    public long getMemoryFootprint() {
+        return 64 + 3 * 16 + 16L * mFlips.length;
+    }
+
+    /**
+     * Turns a world at the earlier generation into the later one.
+     * @param w   World at the delta's starting generation
+     */
+    public void apply(World w) {
+        check(w, mFromGeneration);
+        flip(w);
+        w.setGenerationCount(mToGeneration);
+    }
+
+    /**
+     * Turns a world at the later generation back into the earlier one.
+     * @param w   World at the delta's final generation
+     */
+    public void revert(World w) {
+        check(w, mToGeneration);
+        flip(w);
+        w.setGenerationCount(mFromGeneration);
+    }
+
+    /**
+     * Helper method - flips every recorded cell. Flipping is its own
+     * inverse, so this both applies and reverts the delta.
+     * @param w   World
+     */
+    private void flip(World w) {
+        for (int k = 0; k < mFlips.length; k++)
+            w.flipWord(mRows[k], mWords[k], mFlips[k]);
+    }
+
+    /**
+     * Helper method - checks a world is the right size and generation for
+     * this delta.
+     * @param w            World
+     * @param generation   Generation it must be at
+     */
+    private void check(World w, int generation) {
+        if (w.getWidth() != mWidth || w.getHeight() != mHeight)
+            throw new IllegalArgumentException("Delta is for a " + mWidth + "x" + mHeight + " world.");
+        if (w.getGenerationCount() != generation)
+            throw new IllegalArgumentException("Delta needs generation " + generation
+                    + " (world is at " + w.getGenerationCount() + ").");
+    }
+}
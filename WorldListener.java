@@ -0,0 +1,20 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+/**
+ * Told about each generation a World computes, e.g. to collect metrics or
+ * chart a world's activity. Listeners are called on the thread which
+ * stepped the world, straight after each step, so should be quick.
+ */
+public interface WorldListener {
+
+    /**
+     * Called after a world has computed a generation.
+     * @param world            World, now at the new generation
+     * @param births           Cells which came alive
+     * @param deaths           Cells which died
+     * @param nanos            Time taken to compute the generation
+     * @param allocatedBytes   Bytes allocated by the stepping thread while
+     *                         computing it, or -1 if it cannot be measured
+     */
+    void generationComputed(World world, long births, long deaths, long nanos, long allocatedBytes);
+}
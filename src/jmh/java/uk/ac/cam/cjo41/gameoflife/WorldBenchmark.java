@@ -0,0 +1,241 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for stepping and cloning worlds, parsing patterns and
+ * loading pattern stores, run in forked JVMs with their own warm-up. Each
+ * step benchmark invocation steps a fresh copy of the starting world
+ * through the same batch of generations, so every iteration measures the
+ * same work.
+ *
+ * Usage: mvn -Pjmh package, then java -jar target/benchmarks.jar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WorldBenchmark {
+
+    private static final int STEP_BATCH = 100;
+    private static final String GLIDER_GUN =
+            "000000000000000000000000100000000000 000000000000000000000010100000000000 "
+            + "000000000000110000001100000000000011 000000000001000100001100000000000011 "
+            + "110000000010000010001100000000000000 110000000010001011000010100000000000 "
+            + "000000000010000010000000100000000000 000000000001000100000000000000000000 "
+            + "000000000000110000000000000000000000";
+
+    /**
+     * A board to step or clone, of each size and kind of pattern. Soups
+     * are named by the fraction of cells alive.
+     */
+    @State(Scope.Thread)
+    public static class Board {
+
+        @Param({"256", "1024", "4096"})
+        public int mSize;
+
+        @Param({"soup-0.1", "soup-0.3", "soup-0.5", "gliderGun", "sparse"})
+        public String mPattern;
+
+        private World mInitial;
+        private World mEvolved;
+
+        /**
+         * Creates the starting world, and a copy of it part-way through its
+         * life to clone.
+         * @throws PatternFormatException
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws PatternFormatException {
+            mInitial = new World(new Pattern(pattern(mPattern, mSize)));
+            mEvolved = new World(mInitial);
+            for (int i = 0; i < 10; i++) mEvolved.nextGeneration();
+        }
+    }
+
+    /**
+     * The text of a pattern to parse, of each size.
+     */
+    @State(Scope.Thread)
+    public static class Text {
+
+        @Param({"256", "1024", "4096"})
+        public int mSize;
+
+        private String mFormat;
+
+        /**
+         * Creates the text of a soup.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            mFormat = pattern("soup-0.3", mSize);
+        }
+    }
+
+    /**
+     * A pattern file to load, of each length and format.
+     */
+    @State(Scope.Thread)
+    public static class Store {
+
+        @Param({"10000", "100000"})
+        public int mLines;
+
+        @Param({"text", "catalogue"})
+        public String mFormat;
+
+        private File mFile;
+
+        /**
+         * Writes the pattern file, converting it to a catalogue if needed.
+         * @throws IOException
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            File text = File.createTempFile("patterns", ".txt");
+            Random random = new Random(mLines);
+            try (Writer w = new BufferedWriter(new FileWriter(text))) {
+                for (int i = 0; i < mLines; i++) {
+                    int width = 4 + random.nextInt(9);
+                    int height = 4 + random.nextInt(9);
+                    w.write("Pattern " + i + ":Author " + (i % 997) + ":" + width + ":" + height
+                            + ":0:0:" + soup(width, height, 0.4, random) + "\n");
+                }
+            }
+            if (mFormat.equals("text")) {
+                mFile = text;
+                return;
+            }
+            mFile = File.createTempFile("patterns", ".golc");
+            new PatternStore(text.getPath()).writeCatalogue(mFile.getPath());
+            text.delete();
+        }
+
+        /**
+         * Deletes the pattern file.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Steps a fresh copy of the starting world through a batch of
+     * generations. The copy shares the starting world's rows, so costs
+     * little next to the steps.
+     * @param board   Board to step
+     * @return   World stepped, so that the work is not eliminated
+     */
+    @Benchmark
+    @OperationsPerInvocation(STEP_BATCH)
+    public World step(Board board) {
+        World world = new World(board.mInitial);
+        for (int i = 0; i < STEP_BATCH; i++) world.nextGeneration();
+        return world;
+    }
+
+    /**
+     * Clones a world part-way through its life.
+     * @param board   Board to clone
+     * @return   Clone
+     * @throws CloneNotSupportedException
+     */
+    @Benchmark
+    public World cloneWorld(Board board) throws CloneNotSupportedException {
+        return board.mEvolved.clone();
+    }
+
+    /**
+     * Parses a pattern and creates a world from it.
+     * @param text   Pattern text
+     * @return   World created
+     * @throws PatternFormatException
+     */
+    @Benchmark
+    public World parseAndInitialise(Text text) throws PatternFormatException {
+        return new World(new Pattern(text.mFormat));
+    }
+
+    /**
+     * Loads a pattern store from a file.
+     * @param store   Pattern file
+     * @return   Store loaded
+     * @throws IOException
+     */
+    @Benchmark
+    public PatternStore loadStore(Store store) throws IOException {
+        return new PatternStore(store.mFile.getPath());
+    }
+
+    /**
+     * Helper method - creates the text of a square board.
+     * @param kind   "soup-" and the fraction alive, "gliderGun" or "sparse"
+     * @param size   Board size
+     * @return   Pattern text
+     */
+    private static String pattern(String kind, int size) {
+        String cells;
+        if (kind.startsWith("soup-"))
+            cells = soup(size, size, Double.parseDouble(kind.substring(5)), new Random(size));
+        else if (kind.equals("gliderGun"))
+            cells = GLIDER_GUN;
+        else if (kind.equals("sparse"))
+            cells = sparse(size);
+        else
+            throw new IllegalArgumentException("Unknown pattern " + kind);
+        // The glider gun sits just in from the corner, like the text benchmarks
+        int start = kind.equals("gliderGun") ? 1 : 0;
+        return kind + ":Benchmark:" + size + ":" + size + ":" + start + ":" + start + ":" + cells;
+    }
+
+    /**
+     * Helper method - creates the cells of a random soup.
+     * @param width     Width
+     * @param height    Height
+     * @param density   Fraction of cells alive
+     * @param random    Source of randomness
+     * @return   Rows of cells
+     */
+    private static String soup(int width, int height, double density, Random random) {
+        StringBuilder cells = new StringBuilder(height * (width + 1));
+        for (int row = 0; row < height; row++) {
+            if (row > 0) cells.append(' ');
+            for (int col = 0; col < width; col++)
+                cells.append(random.nextDouble() < density ? '1' : '0');
+        }
+        return cells.toString();
+    }
+
+    /**
+     * Helper method - creates the cells of a board with one glider per
+     * 64x64 block along the diagonal.
+     * @param size   Board size
+     * @return   Rows of cells
+     */
+    private static String sparse(int size) {
+        StringBuilder cells = new StringBuilder(size * (size + 1));
+        String[] glider = {"010", "001", "111"};
+        for (int row = 0; row < size; row++) {
+            if (row > 0) cells.append(' ');
+            int block = row / 64;
+            int r = row % 64;
+            for (int col = 0; col < size; col++) {
+                int c = col - block * 64;
+                cells.append((r < 3 && c >= 0 && c < 3) ? glider[r].charAt(c) : '0');
+            }
+        }
+        return cells.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the cycles CycleDetector finds in oscillators and still lifes, and
+ * what it forgets once full.
+ */
+public class CycleDetectorTest {
+
+    @Test
+    public void blinkerHasPeriodTwo() throws PatternFormatException {
+        World world = new World(new Pattern("Blinker:John Conway:5:5:1:2:111"));
+        CycleDetector detector = new CycleDetector();
+        assertFalse(detector.observe(world));
+        world.nextGeneration();
+        assertFalse(detector.observe(world));
+        world.nextGeneration();
+        assertTrue(detector.observe(world));
+        assertEquals(2, detector.getPeriod());
+        assertEquals(0, detector.getCycleStart());
+        assertEquals(1, detector.equivalentGeneration(1001));
+        assertEquals(0, detector.equivalentGeneration(1000));
+    }
+
+    @Test
+    public void stillLifeHasPeriodOne() throws PatternFormatException {
+        World world = new World(new Pattern("Block:John Conway:6:6:2:2:11 11"));
+        CycleDetector detector = new CycleDetector();
+        assertFalse(detector.observe(world));
+        assertFalse(detector.isCycleFound());
+        world.nextGeneration();
+        assertTrue(detector.observe(world));
+        assertEquals(1, detector.getPeriod());
+        assertEquals(0, detector.getCycleStart());
+    }
+
+    @Test
+    public void oldestGenerationsAreForgotten() {
+        CycleDetector detector = new CycleDetector(3);
+        for (int g = 0; g < 4; g++)
+            assertFalse(detector.observe(100 + g, g));
+        // The hash of generation 0 has been forgotten, but generation 2's has not
+        assertFalse(detector.observe(100, 4));
+        assertTrue(detector.observe(102, 5));
+        assertEquals(3, detector.getPeriod());
+        assertEquals(2, detector.getCycleStart());
+    }
+
+    @Test
+    public void collidingHashIsNotReportedAsCycle() throws PatternFormatException {
+        World world = new World(new Pattern("Blinker:John Conway:5:5:1:2:111"));
+        world.nextGeneration();
+        CycleDetector detector = new CycleDetector();
+        // Claims that generation 0 had the hash of generation 1, as a
+        // different state with the same hash would
+        detector.observe(world.getHash(), 0);
+        assertFalse(detector.observe(world, 1));
+        assertFalse(detector.isCycleFound());
+        assertThrows(IllegalStateException.class, () -> detector.equivalentGeneration(10));
+
+        // The hash now stands for generation 1, so the real cycle is found
+        world.nextGeneration();
+        assertFalse(detector.observe(world, 2));
+        world.nextGeneration();
+        assertTrue(detector.observe(world, 3));
+        assertEquals(2, detector.getPeriod());
+        assertEquals(1, detector.getCycleStart());
+    }
+}
@@ -0,0 +1,45 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that generations recomputed by a GenerationHistory are not
+ * reported to listeners a second time.
+ */
+public class GenerationHistoryTest {
+
+    @Test
+    public void listenersAreToldOfEachGenerationOnce() throws PatternFormatException {
+        World initial = new World(new Pattern("Glider:Richard K. Guy:32:32:1:1:010 001 111"));
+        LifeMetrics metrics = new LifeMetrics();
+        initial.addListener(metrics);
+        // Budget too small to hold anything but the first and latest worlds,
+        // so going back means stepping again
+        GenerationHistory history = new GenerationHistory(initial, 8, 1);
+        for (int g = 1; g <= 40; g++)
+            history.get(g);
+        assertEquals(40, metrics.getGenerations());
+
+        history.get(5);
+        history.get(20);
+        assertEquals(40, metrics.getGenerations());
+
+        history.get(45);
+        assertEquals(45, metrics.getGenerations());
+        assertEquals(5, history.get(45).getPopulation());
+    }
+
+    @Test
+    public void copiesStartWithoutListeners() throws CloneNotSupportedException {
+        World world = new World(16, 16);
+        LifeMetrics metrics = new LifeMetrics();
+        world.addListener(metrics);
+        new World(world).nextGeneration();
+        world.clone().nextGeneration();
+        assertEquals(0, metrics.getGenerations());
+        world.nextGeneration();
+        assertEquals(1, metrics.getGenerations());
+    }
+}
@@ -0,0 +1,114 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks HashLife against World, with and without a tight bound on the node
+ * table.
+ */
+public class HashLifeTest {
+
+    private static final int SIZE = 512;
+    private static final int OFFSET = 200;
+    private static final String GLIDER_GUN =
+            "000000000000000000000000100000000000 000000000000000000000010100000000000 "
+            + "000000000000110000001100000000000011 000000000001000100001100000000000011 "
+            + "110000000010000010001100000000000000 110000000010001011000010100000000000 "
+            + "000000000010000010000000100000000000 000000000001000100000000000000000000 "
+            + "000000000000110000000000000000000000";
+
+    @Test
+    public void gliderGunMatchesWorld() throws PatternFormatException {
+        checkAgainstWorld(pattern("Gosper glider gun", GLIDER_GUN), HashLife.DEFAULT_MAX_NODES);
+    }
+
+    @Test
+    public void soupMatchesWorld() throws PatternFormatException {
+        checkAgainstWorld(pattern("Soup", soup(48, new Random(3))), HashLife.DEFAULT_MAX_NODES);
+    }
+
+    @Test
+    public void smallTableMatchesWorld() throws PatternFormatException {
+        checkAgainstWorld(pattern("Soup", soup(48, new Random(5))), 4000);
+    }
+
+    @Test
+    public void smallTableStillTakesLargeSteps() throws PatternFormatException {
+        HashLife life = new HashLife(new Pattern("Glider:Richard K. Guy:8:8:1:1:010 001 111"), 2000);
+        // Would never finish a generation at a time
+        life.advance(40);
+        assertEquals(1L << 40, life.getGeneration());
+        assertEquals(5, life.getPopulation());
+        assertTrue(life.getNodeCount() <= 2000, "nodes " + life.getNodeCount());
+        // A glider moves one cell diagonally every four generations
+        long moved = 1L << 38;
+        assertTrue(life.getCell(1 + 2 + moved, 1 + 2 + moved));
+    }
+
+    @Test
+    public void negativeAdvanceIsRejectedBeforeAdvancing() throws PatternFormatException {
+        HashLife life = new HashLife(new Pattern("Glider:Richard K. Guy:8:8:1:1:010 001 111"));
+        assertThrows(IllegalArgumentException.class, () -> life.advanceBy(-3));
+        assertEquals(0, life.getGeneration());
+        assertThrows(IllegalArgumentException.class, () -> life.advance(-1));
+        assertEquals(0, life.getGeneration());
+    }
+
+    /**
+     * Helper method - advances a pattern by 1, 2, 4, ... 128 generations,
+     * checking the cells against a World run for as long after each
+     * advance. The pattern stays clear of the World's edges throughout.
+     * @param p          Pattern object
+     * @param maxNodes   Bound on the node table
+     * @throws PatternFormatException
+     */
+    private static void checkAgainstWorld(Pattern p, int maxNodes) throws PatternFormatException {
+        World world = new World(p);
+        HashLife life = new HashLife(p, maxNodes);
+        for (int k = 0; k <= 7; k++) {
+            life.advance(k);
+            for (int g = 0; g < 1 << k; g++)
+                world.nextGeneration();
+            assertEquals(world.getGenerationCount(), life.getGeneration());
+            assertEquals(world.getPopulation(), life.getPopulation(), "generation " + life.getGeneration());
+            World copy = life.toWorld(0, 0, SIZE, SIZE);
+            for (int row = 0; row < SIZE; row++)
+                for (int col = 0; col < SIZE; col++)
+                    assertEquals(world.getCell(col, row), copy.getCell(col, row),
+                            "cell (" + col + ", " + row + ") at generation " + life.getGeneration());
+            if (maxNodes < HashLife.DEFAULT_MAX_NODES)
+                assertTrue(life.getNodeCount() <= maxNodes, "nodes " + life.getNodeCount());
+        }
+    }
+
+    /**
+     * Helper method - places cells in the middle of a large board.
+     * @param name    Pattern name
+     * @param cells   Rows of cells
+     * @return   Pattern
+     * @throws PatternFormatException
+     */
+    private static Pattern pattern(String name, String cells) throws PatternFormatException {
+        return new Pattern(name + ":Test:" + SIZE + ":" + SIZE + ":" + OFFSET + ":" + OFFSET + ":" + cells);
+    }
+
+    /**
+     * Helper method - creates a square of random cells, half of them alive.
+     * @param size     Side length
+     * @param random   Source of randomness
+     * @return   Rows of cells
+     */
+    private static String soup(int size, Random random) {
+        StringBuilder cells = new StringBuilder();
+        for (int row = 0; row < size; row++) {
+            if (row > 0) cells.append(' ');
+            for (int col = 0; col < size; col++)
+                cells.append(random.nextBoolean() ? '1' : '0');
+        }
+        return cells.toString();
+    }
+}
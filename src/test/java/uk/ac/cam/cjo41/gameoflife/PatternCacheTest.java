@@ -0,0 +1,134 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks PatternCache against a local HTTP server which serves one file
+ * with an ETag and answers conditional requests.
+ */
+public class PatternCacheTest {
+
+    @TempDir
+    File mDirectory;
+
+    private HttpServer mServer;
+    private String mUrl;
+    private volatile String mBody = "Glider:Richard K. Guy:8:8:1:1:010 001 111\n";
+    private volatile String mETag = "\"v1\"";
+    private final List<String> mIfNoneMatch = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/patterns.txt", this::handle);
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/patterns.txt";
+    }
+
+    @AfterEach
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void firstFetchDownloadsFile() throws IOException {
+        File file = new PatternCache(mDirectory, 0).fetch(mUrl);
+        assertEquals(mBody, read(file));
+        assertEquals(1, requests());
+        assertNull(mIfNoneMatch.get(0));
+    }
+
+    @Test
+    public void unchangedFileIsRevalidatedNotDownloaded() throws IOException {
+        PatternCache cache = new PatternCache(mDirectory, 0);
+        String original = mBody;
+        cache.fetch(mUrl);
+        // Served only if the ETag does not match, which it should
+        mBody = "not to be downloaded\n";
+        File file = cache.fetch(mUrl);
+        assertEquals(2, requests());
+        assertEquals("\"v1\"", mIfNoneMatch.get(1));
+        assertEquals(original, read(file));
+    }
+
+    @Test
+    public void changedETagDownloadsNewFile() throws IOException {
+        PatternCache cache = new PatternCache(mDirectory, 0);
+        cache.fetch(mUrl);
+        mBody = "Blinker:John Conway:5:5:1:2:111\n";
+        mETag = "\"v2\"";
+        File file = cache.fetch(mUrl);
+        assertEquals(mBody, read(file));
+        assertEquals("\"v1\"", mIfNoneMatch.get(1));
+        // The new ETag is the one sent next time
+        cache.fetch(mUrl);
+        assertEquals(3, requests());
+        assertEquals("\"v2\"", mIfNoneMatch.get(2));
+    }
+
+    @Test
+    public void freshCopyIsUsedWithoutRequest() throws IOException {
+        PatternCache cache = new PatternCache(mDirectory, PatternCache.DEFAULT_MAX_AGE_MILLIS);
+        cache.fetch(mUrl);
+        File file = cache.fetch(mUrl);
+        assertEquals(1, requests());
+        assertEquals(mBody, read(file));
+    }
+
+    /**
+     * Helper method - serves the file, or 304 if the request's ETag matches.
+     * @param exchange   Request and response
+     * @throws IOException
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        mIfNoneMatch.add(ifNoneMatch);
+        exchange.getResponseHeaders().set("ETag", mETag);
+        if (mETag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = mBody.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Helper method - gets the number of requests the server has had.
+     * @return   Requests
+     */
+    private int requests() {
+        return mIfNoneMatch.size();
+    }
+
+    /**
+     * Helper method - reads a cached file.
+     * @param file   File
+     * @return   Contents
+     * @throws IOException
+     */
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
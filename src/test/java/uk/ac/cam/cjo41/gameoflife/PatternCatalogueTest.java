@@ -0,0 +1,66 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that catalogues are told apart from text pattern files.
+ */
+public class PatternCatalogueTest {
+
+    @TempDir
+    File mDirectory;
+
+    @Test
+    public void writtenCatalogueIsRecognised() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(catalogue());
+        assertTrue(PatternCatalogue.isCatalogue(buffer));
+        PatternCatalogue catalogue = new PatternCatalogue(buffer);
+        assertEquals(2, catalogue.size());
+        assertEquals("010 001 111", catalogue.getPatternByName("Glider").getCells());
+    }
+
+    @Test
+    public void truncatedCatalogueIsRejected() throws Exception {
+        byte[] bytes = catalogue();
+        ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(bytes, 40));
+        assertFalse(PatternCatalogue.isCatalogue(buffer));
+        assertThrows(IOException.class, () -> new PatternCatalogue(buffer));
+    }
+
+    @Test
+    public void textStartingWithMagicIsParsedAsText() throws Exception {
+        File file = new File(mDirectory, "patterns.txt");
+        Files.write(file.toPath(), ("GOLCONDA GUN:Someone:5:5:1:1:111\n"
+                + "Glider:Richard K. Guy:8:8:1:1:010 001 111\n").getBytes(StandardCharsets.UTF_8));
+        assertFalse(PatternCatalogue.isCatalogue(ByteBuffer.wrap(Files.readAllBytes(file.toPath()))));
+        PatternStore store = new PatternStore(file.getPath());
+        assertEquals(List.of("GOLCONDA GUN", "Glider"), store.getPatternNames());
+        assertEquals("111", store.getPatternByName("GOLCONDA GUN").getCells());
+    }
+
+    /**
+     * Helper method - writes a catalogue of two patterns.
+     * @return   Catalogue bytes
+     * @throws Exception
+     */
+    private static byte[] catalogue() throws Exception {
+        List<Pattern> patterns = List.of(
+                new Pattern("Glider:Richard K. Guy:8:8:1:1:010 001 111"),
+                new Pattern("Blinker:John Conway:5:5:1:2:111"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PatternCatalogue.write(patterns, out);
+        return out.toByteArray();
+    }
+}
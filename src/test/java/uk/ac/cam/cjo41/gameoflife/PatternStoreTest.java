@@ -0,0 +1,222 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the lookups of PatternStore, comparing stores loaded in different
+ * ways.
+ */
+public class PatternStoreTest {
+
+    @TempDir
+    File mDirectory;
+
+    @Test
+    public void viewsMatchPatternsSortedOnDemand() throws Exception {
+        List<Pattern> patterns = new ArrayList<>();
+        String text = randomPatterns(400, new Random(2), "\n");
+        for (String line : text.split("\n"))
+            patterns.add(new Pattern(line));
+        PatternStore store = new PatternStore(new StringReader(text));
+
+        // Sorts are stable, so equal names stay in file order
+        List<Pattern> nameSorted = new ArrayList<>(patterns);
+        nameSorted.sort(Comparator.comparing(Pattern::getName));
+        assertEquals(describe(nameSorted), describe(store.getPatternsNameSorted()));
+        List<Pattern> authorSorted = new ArrayList<>(patterns);
+        authorSorted.sort(Comparator.comparing(Pattern::getAuthor).thenComparing(Pattern::getName));
+        assertEquals(describe(authorSorted), describe(store.getPatternsAuthorSorted()));
+
+        // Later patterns replace earlier ones of the same name
+        Map<String, Pattern> byName = new TreeMap<>();
+        Set<String> authors = new TreeSet<>();
+        for (Pattern p : patterns) {
+            byName.put(p.getName(), p);
+            authors.add(p.getAuthor());
+        }
+        assertEquals(new ArrayList<>(byName.keySet()), store.getPatternNames());
+        assertEquals(new ArrayList<>(authors), store.getPatternAuthors());
+        for (String author : authors) {
+            List<Pattern> expected = new ArrayList<>();
+            for (Pattern p : authorSorted)
+                if (p.getAuthor().equals(author)) expected.add(p);
+            assertEquals(describe(expected), describe(store.getPatternsByAuthor(author)));
+        }
+
+        for (int x = -1; x <= 160; x++) {
+            List<Pattern> expected = new ArrayList<>();
+            List<String> expectedNames = new ArrayList<>();
+            for (Pattern p : byName.values()) {
+                if ((long) p.getWidth() * p.getHeight() > x) continue;
+                expected.add(p);
+                expectedNames.add(p.getName() + " " + p.getHeight() + " " + p.getWidth());
+            }
+            expected.sort(Comparator.comparingLong((Pattern p) -> (long) p.getWidth() * p.getHeight())
+                    .thenComparing(Pattern::getName));
+            assertEquals(describe(expected), describe(store.getPatternsRepresentableBy(x)), "area " + x);
+            assertEquals(expectedNames, store.getNumPatternsRepresentableBy(x), "area " + x);
+        }
+        assertThrows(UnsupportedOperationException.class, () -> store.getPatternNames().add("x"));
+    }
+
+    @Test
+    public void catalogueLookupsMatchTextStore() throws Exception {
+        File text = write("patterns.txt", randomPatterns(500, new Random(1), "\n"));
+        PatternStore fromText = new PatternStore(text.getPath());
+        File catalogue = new File(mDirectory, "patterns.golc");
+        fromText.writeCatalogue(catalogue.getPath());
+        PatternStore fromCatalogue = new PatternStore(catalogue.getPath());
+
+        assertEquals(describe(fromText.getPatternsNameSorted()), describe(fromCatalogue.getPatternsNameSorted()));
+        assertEquals(describe(fromText.getPatternsAuthorSorted()), describe(fromCatalogue.getPatternsAuthorSorted()));
+        assertEquals(fromText.getPatternNames(), fromCatalogue.getPatternNames());
+        assertEquals(fromText.getPatternAuthors(), fromCatalogue.getPatternAuthors());
+        for (String name : fromText.getPatternNames())
+            assertEquals(describe(fromText.getPatternByName(name)), describe(fromCatalogue.getPatternByName(name)));
+        for (String author : fromText.getPatternAuthors())
+            assertEquals(describe(fromText.getPatternsByAuthor(author)),
+                    describe(fromCatalogue.getPatternsByAuthor(author)));
+        for (long x : new long[] {0, 1, 20, 100, 1000, Long.MAX_VALUE})
+            assertEquals(describe(fromText.getPatternsRepresentableBy(x)),
+                    describe(fromCatalogue.getPatternsRepresentableBy(x)));
+        for (int x : new int[] {0, 1, 20, 100, 1000, Integer.MAX_VALUE})
+            assertEquals(fromText.getNumPatternsRepresentableBy(x), fromCatalogue.getNumPatternsRepresentableBy(x));
+
+        assertThrows(PatternNotFound.class, () -> fromCatalogue.getPatternByName("No such pattern"));
+        assertThrows(PatternNotFound.class, () -> fromCatalogue.getPatternsByAuthor("No such author"));
+        // Patterns are decoded once, so the same one is always returned
+        String name = fromText.getPatternNames().get(0);
+        assertSame(fromCatalogue.getPatternByName(name), fromCatalogue.getPatternByName(name));
+    }
+
+    @Test
+    public void parallelParseMatchesSerialParse() throws Exception {
+        // Several megabytes, so that the source is split into chunks, with
+        // mixed line endings and some malformed lines
+        Random random = new Random(4);
+        String[] newlines = {"\n", "\r\n", "\r"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 6 << 20; i++) {
+            String newline = newlines[random.nextInt(newlines.length)];
+            if (i % 997 == 0)
+                text.append("Broken ").append(i).append(":Nobody:x:2:0:0:11 11").append(newline);
+            else
+                text.append(randomPatterns(1, random, newline).replace("Pattern ", "Pattern " + i + "."));
+        }
+        File file = write("large.txt", text.toString());
+
+        List<String> serialErrors = new ArrayList<>();
+        PatternStore serial = load(file, 1, serialErrors);
+        List<String> parallelErrors = new ArrayList<>();
+        PatternStore parallel = load(file, 4, parallelErrors);
+
+        assertFalse(serialErrors.isEmpty());
+        assertEquals(serialErrors, parallelErrors);
+        assertEquals(describe(serial.getPatternsNameSorted()), describe(parallel.getPatternsNameSorted()));
+        assertEquals(describe(serial.getPatternsAuthorSorted()), describe(parallel.getPatternsAuthorSorted()));
+        assertEquals(serial.getPatternNames(), parallel.getPatternNames());
+        // Writing a catalogue lists the patterns in file order
+        File serialCatalogue = new File(mDirectory, "serial.golc");
+        File parallelCatalogue = new File(mDirectory, "parallel.golc");
+        serial.writeCatalogue(serialCatalogue.getPath());
+        parallel.writeCatalogue(parallelCatalogue.getPath());
+        assertArrayEquals(Files.readAllBytes(serialCatalogue.toPath()), Files.readAllBytes(parallelCatalogue.toPath()));
+    }
+
+    /**
+     * Helper method - loads a store, collecting the messages it prints
+     * about malformed lines.
+     * @param file      Pattern file
+     * @param threads   Threads to parse with
+     * @param errors    Messages printed, one per line
+     * @return   Store
+     * @throws IOException
+     */
+    private static PatternStore load(File file, int threads, List<String> errors) throws IOException {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            return new PatternStore(file.getPath(), threads);
+        }
+        finally {
+            System.setOut(out);
+            for (String line : printed.toString(StandardCharsets.UTF_8).split("\\R"))
+                if (!line.isEmpty()) errors.add(line);
+        }
+    }
+
+    /**
+     * Helper method - writes a file in the temporary directory.
+     * @param name       File name
+     * @param contents   Text
+     * @return   File
+     * @throws IOException
+     */
+    private File write(String name, String contents) throws IOException {
+        File file = new File(mDirectory, name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Helper method - creates lines of random patterns, with names and
+     * authors repeated so that later patterns replace earlier ones.
+     * @param count     Number of lines
+     * @param random    Source of randomness
+     * @param newline   Line ending
+     * @return   Text
+     */
+    static String randomPatterns(int count, Random random, String newline) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int width = 1 + random.nextInt(12);
+            int height = 1 + random.nextInt(12);
+            text.append("Pattern ").append(random.nextInt(Math.max(1, count / 2))).append(':')
+                    .append("Author ").append(random.nextInt(20)).append(':')
+                    .append(width + 2).append(':').append(height + 2).append(":1:1:");
+            for (int row = 0; row < height; row++) {
+                if (row > 0) text.append(' ');
+                for (int col = 0; col < width; col++)
+                    text.append(random.nextBoolean() ? '1' : '0');
+            }
+            if (random.nextInt(5) == 0) text.append(":B36/S23");
+            text.append(newline);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Helper method - describes every field of a pattern.
+     * @param p   Pattern
+     * @return   Description
+     */
+    static String describe(Pattern p) {
+        return p.getName() + ":" + p.getAuthor() + ":" + p.getWidth() + ":" + p.getHeight() + ":"
+                + p.getStartCol() + ":" + p.getStartRow() + ":" + p.getCells() + ":" + p.getRule();
+    }
+
+    /**
+     * Helper method - describes every pattern in a list.
+     * @param patterns   Patterns
+     * @return   Descriptions, in order
+     */
+    static List<String> describe(List<Pattern> patterns) {
+        List<String> descriptions = new ArrayList<>();
+        for (Pattern p : patterns)
+            descriptions.add(describe(p));
+        return descriptions;
+    }
+}
@@ -0,0 +1,60 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the rule strings Rule accepts and rejects.
+ */
+public class RuleTest {
+
+    @Test
+    public void conwayIsWrittenEveryWay() throws PatternFormatException {
+        for (String rule : new String[] {"B3/S23", "S23/B3", "b3/s23", "s23/b3", "23/3", " B3/S23 ", "B3/S32"})
+            assertSame(Rule.CONWAY, Rule.parse(rule), rule);
+    }
+
+    @Test
+    public void otherRulesParse() throws PatternFormatException {
+        Rule highLife = Rule.parse("B36/S23");
+        assertEquals((1 << 3) | (1 << 6), highLife.getBirthMask());
+        assertEquals((1 << 2) | (1 << 3), highLife.getSurvivalMask());
+        assertEquals(highLife, Rule.parse("23/36"));
+        assertFalse(highLife.birthsFromNothing());
+        assertTrue(Rule.parse("B0/S8").birthsFromNothing());
+
+        // Nothing is born and nothing survives
+        Rule empty = Rule.parse("B/S");
+        assertEquals(0, empty.getBirthMask());
+        assertEquals(0, empty.getSurvivalMask());
+        assertEquals(Rule.of(0, 0), empty);
+    }
+
+    @Test
+    public void malformedRulesAreRejected() {
+        for (String rule : new String[] {"", "B3", "23", "B3/S23/", "B3/S9", "B3/S2a", "B3x/S23",
+                "B3/B3", "S23/S23", "B3/", "/S23"})
+            assertThrows(PatternFormatException.class, () -> Rule.parse(rule), "'" + rule + "'");
+    }
+
+    @Test
+    public void toStringParsesBack() throws PatternFormatException {
+        assertEquals("B3/S23", Rule.CONWAY.toString());
+        assertEquals("B36/S23", Rule.parse("S32/B63").toString());
+        for (int birth = 0; birth < 1 << 9; birth += 37)
+            for (int survival = 0; survival < 1 << 9; survival += 41) {
+                Rule rule = Rule.of(birth, survival);
+                assertEquals(rule, Rule.parse(rule.toString()), rule.toString());
+            }
+    }
+
+    @Test
+    public void nextFollowsTheMasks() throws PatternFormatException {
+        Rule rule = Rule.parse("B36/S23");
+        for (int n = 0; n <= 8; n++) {
+            assertEquals(n == 3 || n == 6, rule.next(false, n), "birth " + n);
+            assertEquals(n == 2 || n == 3, rule.next(true, n), "survival " + n);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks SparseWorld against World, with patterns which cross chunk
+ * boundaries and negative coordinates.
+ */
+public class SparseWorldTest {
+
+    // Side of the World compared against, centred on the SparseWorld's origin
+    private static final int SIZE = 256;
+    private static final int HALF = SIZE / 2;
+    private static final String[] GLIDER = {"010", "001", "111"};
+
+    @Test
+    public void glidersCrossChunksInEveryDirection() {
+        // The glider as written moves south-east; mirroring it turns it
+        for (int dx : new int[] {1, -1}) {
+            for (int dy : new int[] {1, -1}) {
+                World world = new World(SIZE, SIZE);
+                // Starts 20 cells from the origin, which is a corner of
+                // four chunks, and heads through it
+                for (int r = 0; r < 3; r++)
+                    for (int c = 0; c < 3; c++)
+                        if (GLIDER[r].charAt(c) == '1')
+                            world.setCell(HALF - 20 * dx + c * dx, HALF - 20 * dy + r * dy, true);
+                checkAgainstWorld(world, 200, "glider (" + dx + ", " + dy + ")");
+            }
+        }
+    }
+
+    @Test
+    public void soupMatchesWorld() {
+        World world = new World(SIZE, SIZE);
+        Random random = new Random(6);
+        for (int row = HALF - 30; row < HALF + 30; row++)
+            for (int col = HALF - 30; col < HALF + 30; col++)
+                if (random.nextDouble() < 0.35) world.setCell(col, row, true);
+        checkAgainstWorld(world, 150, "soup");
+    }
+
+    @Test
+    public void boundingBoxCoversLiveCells() {
+        SparseWorld world = new SparseWorld();
+        assertNull(world.getBoundingBox());
+        world.setCell(-100, 5, true);
+        world.setCell(70, -3, true);
+        world.setCell(0, 0, true);
+        assertEquals(new Rectangle(-100, -3, 171, 9), world.getBoundingBox());
+        world.setCell(-100, 5, false);
+        assertEquals(new Rectangle(0, -3, 71, 4), world.getBoundingBox());
+        world.setCell(70, -3, false);
+        world.setCell(0, 0, false);
+        assertNull(world.getBoundingBox());
+        assertEquals(0, world.getChunkCount());
+    }
+
+    @Test
+    public void toWorldCopiesOnlyTheWindow() {
+        SparseWorld world = new SparseWorld();
+        world.setCell(-65, -1, true);
+        world.setCell(-64, 0, true);
+        world.setCell(63, 63, true);
+        world.setCell(64, 64, true);
+        World window = world.toWorld(-64, -1, 128, 65);
+        assertEquals(2, window.getPopulation());
+        assertTrue(window.getCell(0, 1));
+        assertTrue(window.getCell(127, 64));
+        assertEquals(4, world.toWorld(-65, -1, 130, 66).getPopulation());
+    }
+
+    /**
+     * Helper method - copies a World into a SparseWorld with the World's
+     * centre at the origin, then steps both, checking that they match after
+     * every generation. The pattern must stay clear of the World's edges.
+     * @param world         World
+     * @param generations   Number of generations
+     * @param name          Description of the pattern, for failures
+     */
+    private static void checkAgainstWorld(World world, int generations, String name) {
+        SparseWorld sparse = new SparseWorld();
+        for (int row = 0; row < SIZE; row++)
+            for (int col = 0; col < SIZE; col++)
+                if (world.getCell(col, row)) sparse.setCell(col - HALF, row - HALF, true);
+
+        for (int g = 1; g <= generations; g++) {
+            world.nextGeneration();
+            sparse.nextGeneration();
+            assertEquals(world.getPopulation(), sparse.getPopulation(), name + " at generation " + g);
+            World copy = sparse.toWorld(-HALF, -HALF, SIZE, SIZE);
+            for (int row = 0; row < SIZE; row++)
+                for (int i = 0; i < world.getWordsPerRow(); i++)
+                    assertEquals(world.getWord(row, i), copy.getWord(row, i),
+                            name + " row " + (row - HALF) + " at generation " + g);
+        }
+        assertEquals(generations, sparse.getGenerationCount());
+    }
+}
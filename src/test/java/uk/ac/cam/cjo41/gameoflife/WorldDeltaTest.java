@@ -0,0 +1,88 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that applying and reverting a WorldDelta gives back the worlds it
+ * was recorded between, hash and population included.
+ */
+public class WorldDeltaTest {
+
+    @Test
+    public void applyAndRevertRoundTrip() throws CloneNotSupportedException {
+        // Not a whole number of words wide, so the last word is partly used
+        World world = new World(100, 70);
+        Random random = new Random(8);
+        for (int row = 0; row < world.getHeight(); row++)
+            for (int col = 0; col < world.getWidth(); col++)
+                if (random.nextDouble() < 0.4) world.setCell(col, row, true);
+
+        for (int g = 0; g < 30; g++) {
+            World from = world.clone();
+            world.nextGeneration();
+            World to = world.clone();
+            WorldDelta delta = WorldDelta.between(from, to);
+            assertEquals(g, delta.getFromGeneration());
+            assertEquals(g + 1, delta.getToGeneration());
+
+            World applied = from.clone();
+            delta.apply(applied);
+            assertSameWorld(to, applied);
+            World reverted = to.clone();
+            delta.revert(reverted);
+            assertSameWorld(from, reverted);
+            // Clones share rows with the worlds they came from, which must
+            // be left as they were
+            assertEquals(g, from.getGenerationCount());
+            assertSameWorld(world, to);
+            assertEquals(from.getPopulation(), reverted.getPopulation());
+        }
+    }
+
+    @Test
+    public void flippedCellsAreCounted() throws CloneNotSupportedException {
+        World from = new World(80, 10);
+        World to = from.clone();
+        to.setCell(3, 2, true);
+        to.setCell(70, 9, true);
+        from.setCell(64, 0, true);
+        to.setGenerationCount(1);
+        WorldDelta delta = WorldDelta.between(from, to);
+        assertEquals(3, delta.getFlippedCellCount());
+        World applied = from.clone();
+        delta.apply(applied);
+        assertSameWorld(to, applied);
+    }
+
+    @Test
+    public void wrongWorldIsRejected() throws CloneNotSupportedException {
+        World from = new World(20, 20);
+        World to = from.clone();
+        to.nextGeneration();
+        WorldDelta delta = WorldDelta.between(from, to);
+        assertThrows(IllegalArgumentException.class, () -> delta.apply(to.clone()));
+        assertThrows(IllegalArgumentException.class, () -> delta.revert(from.clone()));
+        assertThrows(IllegalArgumentException.class, () -> delta.apply(new World(21, 20)));
+        assertThrows(IllegalArgumentException.class, () -> WorldDelta.between(from, new World(20, 21)));
+    }
+
+    /**
+     * Helper method - checks that two worlds have the same cells,
+     * generation, hash and population.
+     * @param expected   Expected world
+     * @param actual     Actual world
+     */
+    private static void assertSameWorld(World expected, World actual) {
+        int g = expected.getGenerationCount();
+        assertEquals(g, actual.getGenerationCount());
+        for (int row = 0; row < expected.getHeight(); row++)
+            for (int i = 0; i < expected.getWordsPerRow(); i++)
+                assertEquals(expected.getWord(row, i), actual.getWord(row, i), "row " + row + " at generation " + g);
+        assertEquals(expected.getHash(), actual.getHash(), "hash at generation " + g);
+        assertEquals(expected.getPopulation(), actual.getPopulation(), "population at generation " + g);
+    }
+}
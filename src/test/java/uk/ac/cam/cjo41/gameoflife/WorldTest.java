@@ -0,0 +1,108 @@
+package uk.ac.cam.cjo41.gameoflife;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks the word-parallel step of World against the cell-by-cell reference
+ * step on random worlds.
+ */
+public class WorldTest {
+
+    private static final int GENERATIONS = 20;
+
+    @Test
+    public void stepMatchesReferenceOnRandomWorlds() {
+        Random random = new Random(1);
+        // Sizes either side of word boundaries, and a single word
+        int[] widths = {1, 7, 63, 64, 65, 100, 128, 130};
+        for (int width : widths) {
+            int height = 1 + random.nextInt(70);
+            World fast = randomWorld(width, height, random.nextDouble(), random);
+            World reference = new World(fast);
+            assertSameSteps(fast, reference, width + "x" + height);
+        }
+    }
+
+    @Test
+    public void stepMatchesReferenceForOtherRules() throws PatternFormatException {
+        Random random = new Random(2);
+        String[] rules = {"B36/S23", "B2/S", "B3678/S34678", "B1357/S1357", "B0/S8", "B012345678/S012345678"};
+        for (String rule : rules) {
+            World fast = randomWorld(90, 40, 0.3, random);
+            fast.setRule(Rule.parse(rule));
+            World reference = new World(fast);
+            assertSameSteps(fast, reference, rule);
+        }
+    }
+
+    @Test
+    public void parallelStepMatchesReference() {
+        Random random = new Random(3);
+        World fast = randomWorld(200, 150, 0.35, random);
+        fast.setThreads(4);
+        fast.setBandSize(16);
+        World reference = new World(fast);
+        reference.setThreads(1);
+        assertSameSteps(fast, reference, "parallel");
+    }
+
+    @Test
+    public void setCellIgnoresCellsOutsideWorld() {
+        World world = new World(70, 10);
+        // A domino on the bottom edge, with a cell written just below it
+        world.setCell(5, 9, true);
+        world.setCell(6, 9, true);
+        world.setCell(5, 10, true);
+        world.setCell(6, 10, true);
+        world.setCell(-1, 0, true);
+        world.setCell(0, -1, true);
+        world.setCell(70, 0, true);
+        world.setCell(127, 0, true);
+        assertEquals(2, world.getPopulation());
+        world.nextGeneration();
+        assertEquals(0, world.getPopulation());
+        assertFalse(world.getCell(5, 9));
+    }
+
+    /**
+     * Helper method - steps two copies of a world, one with each step, and
+     * checks every cell and the population agree after each generation.
+     * @param fast        World to step with nextGeneration()
+     * @param reference   Copy to step with nextGenerationReference()
+     * @param label       Description of the world, for failure messages
+     */
+    private static void assertSameSteps(World fast, World reference, String label) {
+        for (int g = 1; g <= GENERATIONS; g++) {
+            fast.nextGeneration();
+            reference.nextGenerationReference();
+            for (int row = 0; row < fast.getHeight(); row++)
+                for (int col = 0; col < fast.getWidth(); col++)
+                    assertEquals(reference.getCell(col, row), fast.getCell(col, row),
+                            label + ": cell (" + col + ", " + row + ") of generation " + g);
+            assertEquals(reference.getPopulation(), fast.getPopulation(), label + ": population of generation " + g);
+            assertEquals(g, fast.getGenerationCount());
+        }
+    }
+
+    /**
+     * Helper method - creates a world with cells alive at random.
+     * @param width     Width of world
+     * @param height    Height of world
+     * @param density   Chance of each cell being alive
+     * @param random    Source of randomness
+     * @return   World
+     */
+    private static World randomWorld(int width, int height, double density, Random random) {
+        World world = new World(width, height);
+        for (int row = 0; row < height; row++)
+            for (int col = 0; col < width; col++)
+                if (random.nextDouble() < density)
+                    world.setCell(col, row, true);
+        return world;
+    }
+}